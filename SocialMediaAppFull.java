@@ -3,7 +3,7 @@
    hover preview, like/comment/follow, admin export, AURA UI.
    Fixes applied:
    - proper imports (DefaultTableModel, javax.swing.Timer, java.awt.Image)
-   - ImageUtils.scale returns Image; ImageIcon constructed from Image
+   - ImageUtils.scale returns a rendered BufferedImage; ImageIcon constructed from it
    - Timer ambiguity removed (using javax.swing.Timer import)
    - CSV writing uses "\n" correctly
    - comment IDs use timestamp to avoid counter issues
@@ -13,17 +13,57 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.text.SimpleDateFormat;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 import javax.imageio.ImageIO;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.swing.*;
 import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.plaf.basic.BasicListUI;
 import javax.swing.table.DefaultTableModel;
 
 public class SocialMediaAppFull extends JFrame {
@@ -35,751 +75,5787 @@ public class SocialMediaAppFull extends JFrame {
         boolean validateLogin(String username, String password);
         boolean addPost(int userId, String content, String imageFilename);
         List<PostItem> fetchTimelineForUser(int userId);
+        /** Up to limit timeline posts older than beforePostId, newest first; beforePostId <= 0 starts at the newest post. */
+        List<PostItem> fetchTimelinePage(int userId, int beforePostId, int limit);
+        /** Up to limit of the user's own posts older than beforePostId, newest first; beforePostId <= 0 starts at their newest post. */
+        List<PostItem> fetchPostsByUser(int userId, int beforePostId, int limit);
         List<String> allUsernames();
+        /** Follows and unfollows are idempotent: repeating one changes nothing. */
         void follow(int followerId, int followeeId);
+        void unfollow(int followerId, int followeeId);
+        boolean isFollowing(int followerId, int followeeId);
+        /** Usernames of the user's followers, sorted. */
+        List<String> followers(int userId);
+        int followerCount(int userId);
+        /** Likes are idempotent per user: liking twice counts once. */
         void like(int postId, int userId);
+        void unlike(int postId, int userId);
+        boolean hasLiked(int postId, int userId);
         void comment(int postId, int userId, String text);
         List<PostItem> fetchAllPosts();
+        /** Posts matching any word or #hashtag of the query, best match first; offset/limit select the page. */
+        List<PostItem> searchPosts(String query, int offset, int limit);
+        /** Usernames containing the query, case-insensitively; exact and prefix matches rank first. */
+        List<String> searchUsers(String query, int offset, int limit);
         String getAvatarFilename(int userId);
         void setAvatar(int userId, String filename);
+
+        /** Told about changes once they are written, on the thread that made them; UI listeners move to the EDT themselves. */
+        interface Listener {
+            default void userAdded(String username) {}
+            default void postAdded(PostItem post) {}
+            /** A post's like or comment count changed; the counts are the ones right after the change. */
+            default void countersChanged(int postId, int likes, int comments) {}
+            default void followChanged(int followerId, int followeeId, boolean following) {}
+        }
+        void addListener(Listener l);
+        void removeListener(Listener l);
     }
 
-    static class CSVStore implements DataStore {
-        private final File usersFile = new File("users.csv");
-        private final File postsFile = new File("posts.csv");
-        private final File followsFile = new File("follows.csv");
-        private final File likesFile = new File("likes.csv");
-        private final File commentsFile = new File("comments.csv");
-        private final File metaFile = new File("meta.csv");
-        private final File avatarsDir = new File("avatars");
-        private final File postImagesDir = new File("posts_images");
+    // --- Store change notification: each store keeps one of these and calls it after a successful write ---
+    static class StoreEvents implements DataStore.Listener {
+        private final List<DataStore.Listener> listeners = new CopyOnWriteArrayList<>();
 
-        private int nextUserId = 1;
-        private int nextPostId = 1;
-        private final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        void add(DataStore.Listener l) { listeners.add(l); }
+        void remove(DataStore.Listener l) { listeners.remove(l); }
+
+        @Override public void userAdded(String username) { fire(l -> l.userAdded(username)); }
+        @Override public void postAdded(PostItem post) { fire(l -> l.postAdded(post)); }
+        @Override public void countersChanged(int postId, int likes, int comments) { fire(l -> l.countersChanged(postId, likes, comments)); }
+        @Override public void followChanged(int followerId, int followeeId, boolean following) { fire(l -> l.followChanged(followerId, followeeId, following)); }
+
+        // the write already happened, so a failing listener must not look like a failed write to the caller
+        private void fire(Consumer<DataStore.Listener> call) {
+            for (DataStore.Listener l : listeners) {
+                try { call.accept(l); } catch (RuntimeException e) { e.printStackTrace(); }
+            }
+        }
+    }
+
+    // --- Metrics: per-operation counts, bytes read and latency histograms, published as JMX MXBeans and in the admin panel ---
+    static final class Metrics {
+        /** -Dsocial.metrics=false leaves the store unwrapped and turns every hook into one constant check. */
+        static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("social.metrics", "true"));
+
+        private static final Map<String, Op> OPS = new ConcurrentHashMap<>();
+        // the store operation running on this thread, which is charged for the bytes its reads pull in
+        private static final ThreadLocal<Op> CURRENT = new ThreadLocal<>();
+
+        private Metrics() {}
+
+        /** The named operation, created and registered over JMX (as social:type=Operation,name=...) on first use. */
+        static Op op(String name) {
+            return OPS.computeIfAbsent(name, n -> register("social:type=Operation,name=" + n, new Op(n)));
+        }
+
+        /** Registers bean with the platform MBean server under objectName, unless metrics are off; returns bean. */
+        static <T> T register(String objectName, T bean) {
+            if (!ENABLED) return bean;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(objectName));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+            return bean;
+        }
+
+        static List<Op> all() {
+            List<Op> ops = new ArrayList<>(OPS.values());
+            ops.sort(Comparator.comparing(Op::getName));
+            return ops;
+        }
+
+        /** Start time for Op.record, or 0 when metrics are off. */
+        static long start() { return ENABLED ? System.nanoTime() : 0; }
+
+        /** Makes op the current operation on this thread; returns the one to restore afterwards. */
+        static Op enter(Op op) {
+            Op outer = CURRENT.get();
+            CURRENT.set(op);
+            return outer;
+        }
+
+        static void exit(Op outer) { if (outer == null) CURRENT.remove(); else CURRENT.set(outer); }
+
+        /** Charges n bytes of file reads to the current operation, if any. */
+        static void bytesRead(long n) {
+            if (!ENABLED || n <= 0) return;
+            Op op = CURRENT.get();
+            if (op != null) op.bytes.add(n);
+        }
+
+        static final class Op implements OperationMXBean {
+            private final String name;
+            private final LongAdder errors = new LongAdder(), bytes = new LongAdder();
+            private final LatencyHistogram latency = new LatencyHistogram();
+
+            Op(String name) { this.name = name; }
+
+            /** Records one call that began at start (from Metrics.start()). */
+            void record(long start) { record(start, true); }
+
+            void record(long start, boolean ok) {
+                if (!Metrics.ENABLED) return;
+                latency.record(System.nanoTime() - start);
+                if (!ok) errors.increment();
+            }
+
+            void read(long n) { if (Metrics.ENABLED) bytes.add(n); }
+
+            @Override public String getName() { return name; }
+            @Override public long getCount() { return latency.count(); }
+            @Override public long getErrors() { return errors.sum(); }
+            @Override public long getBytesRead() { return bytes.sum(); }
+            @Override public double getMeanMillis() { return latency.mean() / 1e6; }
+            @Override public double getP50Millis() { return latency.percentile(0.50) / 1e6; }
+            @Override public double getP99Millis() { return latency.percentile(0.99) / 1e6; }
+            @Override public double getMaxMillis() { return latency.max() / 1e6; }
+            @Override public void reset() { latency.reset(); errors.reset(); bytes.reset(); }
+        }
+    }
+
+    /** What JMX shows for one operation; times are in milliseconds. */
+    public interface OperationMXBean {
+        String getName();
+        long getCount();
+        long getErrors();
+        long getBytesRead();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP99Millis();
+        double getMaxMillis();
+        void reset();
+    }
+
+    /** Log compaction totals for the whole process; JMX shows them as social:type=Compaction. */
+    public interface CompactionMXBean {
+        long getCompactions();
+        long getBytesReclaimed();
+        long getTotalMillis();
+        long getLastMillis();
+    }
+
+    // --- Latency histogram: log-linear buckets as in HdrHistogram, ~3% relative error, fixed size, lock-free recording ---
+    static final class LatencyHistogram {
+        // values below 2 * SUB are counted exactly; above that each power of two is split into SUB buckets
+        private static final int SUB_BITS = 5, SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (63 - SUB_BITS) * SUB + 2 * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder(), total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            counts.incrementAndGet(bucket(nanos));
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        static int bucket(long v) {
+            if (v < 2 * SUB) return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return shift * SUB + (int) (v >>> shift);
+        }
+
+        /** Largest value that falls into bucket i. */
+        static long highest(int i) {
+            if (i < 2 * SUB) return i;
+            int shift = i / SUB - 1;
+            return ((long) (i - shift * SUB + 1) << shift) - 1;
+        }
+
+        long count() { return count.sum(); }
+        long max() { return max.get(); }
+        double mean() { long n = count.sum(); return n == 0 ? 0 : (double) total.sum() / n; }
+
+        /** The value at quantile q (0..1), to within a bucket; never more than the recorded maximum. */
+        long percentile(double q) {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n)), seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(highest(i), max.get());
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+            count.reset(); total.reset(); max.reset();
+        }
+    }
+
+    // --- Instrumented store: times every DataStore call into its own operation (store.<method>), around whichever store it wraps ---
+    static class InstrumentedStore implements DataStore, DataExporter.Engagement {
+        private final DataStore store;
+        private final Metrics.Op init = Metrics.op("store.init"), createUser = Metrics.op("store.createUser"), getUserId = Metrics.op("store.getUserId"),
+                validateLogin = Metrics.op("store.validateLogin"), addPost = Metrics.op("store.addPost"),
+                fetchTimelineForUser = Metrics.op("store.fetchTimelineForUser"), fetchTimelinePage = Metrics.op("store.fetchTimelinePage"),
+                fetchPostsByUser = Metrics.op("store.fetchPostsByUser"), allUsernames = Metrics.op("store.allUsernames"),
+                follow = Metrics.op("store.follow"), unfollow = Metrics.op("store.unfollow"), isFollowing = Metrics.op("store.isFollowing"),
+                followers = Metrics.op("store.followers"), followerCount = Metrics.op("store.followerCount"),
+                like = Metrics.op("store.like"), unlike = Metrics.op("store.unlike"), hasLiked = Metrics.op("store.hasLiked"),
+                comment = Metrics.op("store.comment"), fetchAllPosts = Metrics.op("store.fetchAllPosts"),
+                searchPosts = Metrics.op("store.searchPosts"), searchUsers = Metrics.op("store.searchUsers"),
+                getAvatarFilename = Metrics.op("store.getAvatarFilename"), setAvatar = Metrics.op("store.setAvatar");
+
+        InstrumentedStore(DataStore store) { this.store = store; }
+
+        private <T> T call(Metrics.Op op, Supplier<T> body) {
+            Metrics.Op outer = Metrics.enter(op);
+            long start = System.nanoTime();
+            boolean ok = false;
+            try {
+                T result = body.get();
+                ok = true;
+                return result;
+            } finally {
+                op.record(start, ok);
+                Metrics.exit(outer);
+            }
+        }
+
+        private void run(Metrics.Op op, Runnable body) { call(op, () -> { body.run(); return null; }); }
+
+        @Override public boolean init() { return call(init, store::init); }
+        @Override public int createUser(String username, String password) { return call(createUser, () -> store.createUser(username, password)); }
+        @Override public int getUserId(String username) { return call(getUserId, () -> store.getUserId(username)); }
+        @Override public boolean validateLogin(String username, String password) { return call(validateLogin, () -> store.validateLogin(username, password)); }
+        @Override public boolean addPost(int userId, String content, String imageFilename) { return call(addPost, () -> store.addPost(userId, content, imageFilename)); }
+        @Override public List<PostItem> fetchTimelineForUser(int userId) { return call(fetchTimelineForUser, () -> store.fetchTimelineForUser(userId)); }
+        @Override public List<PostItem> fetchTimelinePage(int userId, int beforePostId, int limit) { return call(fetchTimelinePage, () -> store.fetchTimelinePage(userId, beforePostId, limit)); }
+        @Override public List<PostItem> fetchPostsByUser(int userId, int beforePostId, int limit) { return call(fetchPostsByUser, () -> store.fetchPostsByUser(userId, beforePostId, limit)); }
+        @Override public List<String> allUsernames() { return call(allUsernames, store::allUsernames); }
+        @Override public void follow(int followerId, int followeeId) { run(follow, () -> store.follow(followerId, followeeId)); }
+        @Override public void unfollow(int followerId, int followeeId) { run(unfollow, () -> store.unfollow(followerId, followeeId)); }
+        @Override public boolean isFollowing(int followerId, int followeeId) { return call(isFollowing, () -> store.isFollowing(followerId, followeeId)); }
+        @Override public List<String> followers(int userId) { return call(followers, () -> store.followers(userId)); }
+        @Override public int followerCount(int userId) { return call(followerCount, () -> store.followerCount(userId)); }
+        @Override public void like(int postId, int userId) { run(like, () -> store.like(postId, userId)); }
+        @Override public void unlike(int postId, int userId) { run(unlike, () -> store.unlike(postId, userId)); }
+        @Override public boolean hasLiked(int postId, int userId) { return call(hasLiked, () -> store.hasLiked(postId, userId)); }
+        @Override public void comment(int postId, int userId, String text) { run(comment, () -> store.comment(postId, userId, text)); }
+        @Override public List<PostItem> fetchAllPosts() { return call(fetchAllPosts, store::fetchAllPosts); }
+        @Override public List<PostItem> searchPosts(String query, int offset, int limit) { return call(searchPosts, () -> store.searchPosts(query, offset, limit)); }
+        @Override public List<String> searchUsers(String query, int offset, int limit) { return call(searchUsers, () -> store.searchUsers(query, offset, limit)); }
+        @Override public String getAvatarFilename(int userId) { return call(getAvatarFilename, () -> store.getAvatarFilename(userId)); }
+        @Override public void setAvatar(int userId, String filename) { run(setAvatar, () -> store.setAvatar(userId, filename)); }
+        @Override public void addListener(Listener l) { store.addListener(l); }
+        @Override public void removeListener(Listener l) { store.removeListener(l); }
+
+        @Override
+        public void frozen(DataExporter.Cut cut) throws IOException {
+            if (!(store instanceof DataExporter.Engagement)) throw new IOException(store.getClass().getSimpleName() + " cannot be exported");
+            ((DataExporter.Engagement) store).frozen(cut);
+        }
+    }
+
+    static class CSVStore implements DataStore, DataExporter.Engagement {
+        static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+        private final File dir; // null = working directory
+        private final File usersFile, postsFile, followsFile, likesFile, commentsFile, metaFile, avatarsDir, postImagesDir;
+        private final PostCounters counters;
+        private final SocialGraph graph = new SocialGraph();
+        private final GroupCommitLog log = GroupCommitLog.fromSystemProperties();
+        private final UserAttributes attributes;
+        private final LogCompactor compactor = new LogCompactor(log);
+        private final StoreEvents events = new StoreEvents();
+
+        // No store-wide lock. Each file's lock only orders id allocation with the log enqueue (so rows land in id order);
+        // callers wait for the group commit outside it. Likes and follows lock per post / per follower instead.
+        // Scans read log snapshots (whole lines, never a half-rewritten file) and take no store lock at all.
+        private final Object usersLock = new Object(), postsLock = new Object();
+        private final AtomicInteger nextUserId = new AtomicInteger(1);
+        private final AtomicInteger nextPostId = new AtomicInteger(1);
+        // usernames never change once created, so they can be cached without invalidation
+        private final Map<Integer, String> usernames = new ConcurrentHashMap<>();
+        // stored (escaped) username -> id and password column; loaded on first use, then kept current under usersLock
+        private static final class Login {
+            final int id; volatile String password;
+            Login(int id, String password) { this.id = id; this.password = password; }
+        }
+        private final Map<String, Login> logins = new ConcurrentHashMap<>();
+        private volatile boolean loginsLoaded;
+        // post index for paging, built on first use and kept current by addPost; guarded by postsLock.
+        // Offsets of posts not (yet) indexed are -1, since a post may be written before or after the index is built.
+        private long[] postOffsets;
+        private Map<Integer, IntList> postsByAuthor;
+        private volatile SearchIndex search; // built on first search, then kept current by createUser/addPost
+        private boolean closed;
+
+        CSVStore() { this(null); }
+
+        /** A store keeping its files in dir instead of the working directory. */
+        CSVStore(File dir) {
+            this.dir = dir;
+            usersFile = file("users.csv");
+            postsFile = file("posts.csv");
+            followsFile = file("follows.csv");
+            likesFile = file("likes.csv");
+            commentsFile = file("comments.csv");
+            metaFile = file("meta.csv");
+            avatarsDir = file("avatars");
+            postImagesDir = file("posts_images");
+            counters = new PostCounters(likesFile, commentsFile, file("counters.dat"));
+            attributes = new UserAttributes(file("attributes.csv"), usersFile, log);
+        }
+
+        private File file(String name) { return dir == null ? new File(name) : new File(dir, name); }
 
         @Override
         public boolean init() {
             try {
+                if (dir != null && !dir.exists()) dir.mkdirs();
                 if (!avatarsDir.exists()) avatarsDir.mkdir();
                 if (!postImagesDir.exists()) postImagesDir.mkdir();
-                if (!usersFile.exists()) usersFile.createNewFile();
-                if (!postsFile.exists()) postsFile.createNewFile();
-                if (!followsFile.exists()) followsFile.createNewFile();
-                if (!likesFile.exists()) likesFile.createNewFile();
-                if (!commentsFile.exists()) commentsFile.createNewFile();
                 if (!metaFile.exists()) metaFile.createNewFile();
+                long usersBytes = 0, postsBytes = 0;
                 List<String> meta = Files.readAllLines(metaFile.toPath());
                 for (String line : meta) {
                     String[] a = line.split(",");
                     if (a.length == 2) {
-                        if (a[0].equals("nextUserId")) nextUserId = Integer.parseInt(a[1]);
-                        if (a[0].equals("nextPostId")) nextPostId = Integer.parseInt(a[1]);
+                        if (a[0].equals("nextUserId")) nextUserId.set(Integer.parseInt(a[1]));
+                        if (a[0].equals("nextPostId")) nextPostId.set(Integer.parseInt(a[1]));
+                        if (a[0].equals("usersBytes")) usersBytes = Long.parseLong(a[1]);
+                        if (a[0].equals("postsBytes")) postsBytes = Long.parseLong(a[1]);
                     }
                 }
+                // opening the log creates missing files and cuts off a line torn by a crash
+                for (File f : new File[] { usersFile, postsFile, followsFile, likesFile, commentsFile }) log.open(f);
+                // meta.csv is only written at shutdown; ids handed out after that are recovered from the log tails
+                nextUserId.set(Math.max(nextUserId.get(), GroupCommitLog.maxLeadingId(usersFile, usersBytes) + 1));
+                nextPostId.set(Math.max(nextPostId.get(), GroupCommitLog.maxLeadingId(postsFile, postsBytes) + 1));
+                counters.load();
+                graph.load(followsFile);
+                attributes.load();
+                compactor.start(() -> compactLogs(false));
+                Runtime.getRuntime().addShutdownHook(new Thread(this::close, "csvstore-shutdown"));
                 return true;
-            } catch (IOException e) {
+            } catch (IOException | NumberFormatException e) {
                 e.printStackTrace();
                 return false;
             }
         }
 
+        /** Drains the log and writes meta.csv and the counter snapshot. Runs at shutdown; the store is unusable afterwards. */
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            compactor.stop();
+            log.close();
+            saveMeta();
+            counters.saveSnapshot();
+        }
+
         private void saveMeta() {
             try (FileWriter fw = new FileWriter(metaFile, false)) {
-                fw.write("nextUserId," + nextUserId + "\n");
-                fw.write("nextPostId," + nextPostId + "\n");
+                fw.write("nextUserId," + nextUserId.get() + "\n");
+                fw.write("nextPostId," + nextPostId.get() + "\n");
+                fw.write("usersBytes," + usersFile.length() + "\n");
+                fw.write("postsBytes," + postsFile.length() + "\n");
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
 
+        /** One compaction pass over the logs that are due (or all of them); the graph and counters in memory already hold the compacted state. */
+        void compactLogs(boolean force) {
+            if (force || compactor.due(followsFile)) compactor.compact(followsFile, LogCompactor.Kind.FOLLOWS, null);
+            if (force || compactor.due(likesFile)) counters.compacting(() -> compactor.compact(likesFile, LogCompactor.Kind.LIKES, counters.dropSnapshot()));
+            if (force || compactor.due(commentsFile)) counters.compacting(() -> compactor.compact(commentsFile, LogCompactor.Kind.COMMENTS, counters.dropSnapshot()));
+            attributes.compact(force);
+        }
+
+        LogCompactor compactor() { return compactor; }
+
+        @Override
+        public void frozen(DataExporter.Cut cut) throws IOException {
+            PostLikes likes = counters.likeSets();
+            likes.frozen(() -> graph.frozen(() -> {
+                log.barrier(); // rows queued before the stripes were taken are in the sets, so they must be in the files too
+                cut.run(likes, graph);
+            }));
+        }
+
         @Override
-        public synchronized int createUser(String username, String password) {
+        public int createUser(String username, String password) {
+            String name = escape(username);
             if (getUserId(username) != -1) return -1;
-            int id = nextUserId++;
-            try (FileWriter fw = new FileWriter(usersFile, true)) {
+            // PBKDF2 is slow on purpose, so it runs before taking the lock
+            String hashed = PasswordHasher.SHARED.hash(password);
+            int id;
+            CompletableFuture<Long> written;
+            synchronized (usersLock) {
+                if (!ensureLogins() || logins.containsKey(name)) return -1;
+                // the name is taken from the moment the row is queued, so a concurrent createUser sees it
+                id = nextUserId.getAndIncrement();
+                logins.put(name, new Login(id, hashed));
+                usernames.put(id, name);
+                if (search != null) search.addUser(name);
                 // id,username,password,avatarFilename
-                fw.append(id + "," + escape(username) + "," + escape(password) + "," + "" + "\n");
-            } catch (IOException e) {
-                e.printStackTrace();
+                written = log.appendAsync(usersFile, id + "," + name + "," + hashed + ",");
+            }
+            if (written.join() < 0) {
+                // under the lock, so an index built meanwhile either never saw the name or has it withdrawn here
+                synchronized (usersLock) {
+                    logins.remove(name);
+                    usernames.remove(id);
+                    if (search != null) search.removeUser(name);
+                }
                 return -1;
             }
-            saveMeta();
+            events.userAdded(name);
             return id;
         }
 
         @Override
         public int getUserId(String username) {
-            try (BufferedReader br = new BufferedReader(new FileReader(usersFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 2 && a[1].equals(username)) return Integer.parseInt(a[0]);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            return -1;
+            Login l = ensureLogins() ? logins.get(escape(username)) : null;
+            return l == null ? -1 : l.id;
         }
 
         @Override
         public boolean validateLogin(String username, String password) {
-            try (BufferedReader br = new BufferedReader(new FileReader(usersFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 3 && a[1].equals(username) && a[2].equals(password)) return true;
+            Login l = ensureLogins() ? logins.get(escape(username)) : null;
+            if (l == null) return false;
+            String stored = l.password;
+            if (!PasswordHasher.SHARED.verify(password, stored)) return false;
+            if (PasswordHasher.SHARED.needsRehash(stored)) {
+                // plaintext or weaker legacy row: store a current hash now that we know the password
+                String hashed = PasswordHasher.SHARED.hash(password);
+                synchronized (usersLock) {
+                    if (l.password.equals(stored) && rewritePassword(l.id, hashed)) l.password = hashed;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             }
-            return false;
+            return true;
+        }
+
+        /** Loads usernames, ids and password columns with one pass over users.csv; afterwards createUser keeps them current. */
+        private boolean ensureLogins() {
+            if (loginsLoaded) return true;
+            synchronized (usersLock) {
+                if (loginsLoaded) return true;
+                try (CsvTokenizer t = tokenize(usersFile)) {
+                    while (t.next()) {
+                        if (t.fields() < 2) continue;
+                        int id = t.intField(0);
+                        String name = t.field(1);
+                        logins.putIfAbsent(name, new Login(id, t.fields() >= 3 ? t.field(2) : ""));
+                        usernames.putIfAbsent(id, name);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+                loginsLoaded = true;
+                return true;
+            }
         }
 
         @Override
-        public synchronized boolean addPost(int userId, String content, String imageFilename) {
-            int id = nextPostId++;
-            String now = sdf.format(new Date());
-            try (FileWriter fw = new FileWriter(postsFile, true)) {
+        public boolean addPost(int userId, String content, String imageFilename) {
+            String now = LocalDateTime.now().format(TIMESTAMP);
+            String text = escape(content);
+            int id;
+            CompletableFuture<Long> written;
+            synchronized (postsLock) {
+                id = nextPostId.getAndIncrement();
+                if (search != null) search.addPost(id, text);
                 // columns: postId,userId,content,createdAt,imageFilename
-                fw.append(id + "," + userId + "," + escape(content) + "," + now + "," + escape(imageFilename == null ? "" : imageFilename) + "\n");
-            } catch (IOException e) {
-                e.printStackTrace();
-                return false;
+                written = log.appendAsync(postsFile, id + "," + userId + "," + text + "," + now + "," + escape(imageFilename == null ? "" : imageFilename));
             }
-            saveMeta();
+            long offset = written.join();
+            if (offset < 0) return false;
+            synchronized (postsLock) {
+                if (postOffsets != null) indexPost(id, userId, offset);
+            }
+            String author = ensureLogins() ? usernames.getOrDefault(userId, "?") : "?";
+            events.postAdded(new PostItem(id, userId, author, text, now, 0, 0, escape(imageFilename == null ? "" : imageFilename)));
             return true;
         }
 
+        /** Adds one post to the paging index unless it is already there. Caller holds postsLock. */
+        private void indexPost(int id, int userId, long offset) {
+            if (id >= postOffsets.length) {
+                int n = postOffsets.length;
+                postOffsets = Arrays.copyOf(postOffsets, Math.max(id + 1, n * 2));
+                Arrays.fill(postOffsets, n, postOffsets.length, -1);
+            }
+            if (postOffsets[id] >= 0) return;
+            postOffsets[id] = offset;
+            // posts finish writing out of id order, so insert rather than append
+            postsByAuthor.computeIfAbsent(userId, k -> new IntList()).addSorted(id);
+        }
+
         @Override
         public List<PostItem> fetchTimelineForUser(int userId) {
-            List<Integer> followees = new ArrayList<>();
+            List<PostItem> posts = readPosts(readFollowees(userId));
+            posts.sort((a,b) -> b.createdAt.compareTo(a.createdAt));
+            return posts;
+        }
+
+        private IntSet readFollowees(int userId) {
+            IntSet followees = new IntSet();
             followees.add(userId); // include self
-            try (BufferedReader br = new BufferedReader(new FileReader(followsFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 2) {
-                        int follower = Integer.parseInt(a[0]);
-                        int followee = Integer.parseInt(a[1]);
-                        if (follower == userId) followees.add(followee);
+            for (int f : graph.followees(userId)) followees.add(f);
+            return followees;
+        }
+
+        @Override
+        public List<PostItem> fetchTimelinePage(int userId, int beforePostId, int limit) {
+            IntSet followees = readFollowees(userId);
+            long[] offsets;
+            synchronized (postsLock) {
+                if (!ensurePostIndex()) return new ArrayList<>();
+                List<IntList> lists = new ArrayList<>();
+                for (int uid : followees.toArray()) {
+                    IntList own = postsByAuthor.get(uid);
+                    if (own != null) lists.add(own);
+                }
+                int[] ids = IntList.mergeNewest(lists, beforePostId <= 0 ? Integer.MAX_VALUE : beforePostId, limit);
+                offsets = offsetsOf(ids);
+            }
+            return readPostsAt(offsets);
+        }
+
+        @Override
+        public List<PostItem> fetchPostsByUser(int userId, int beforePostId, int limit) {
+            long[] offsets;
+            synchronized (postsLock) {
+                if (!ensurePostIndex()) return new ArrayList<>();
+                IntList own = postsByAuthor.get(userId);
+                if (own == null) return new ArrayList<>();
+                offsets = offsetsOf(IntList.mergeNewest(Collections.singletonList(own), beforePostId <= 0 ? Integer.MAX_VALUE : beforePostId, limit));
+            }
+            return readPostsAt(offsets);
+        }
+
+        private long[] offsetsOf(int[] ids) {
+            long[] offsets = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) offsets[i] = postOffsets[ids[i]];
+            return offsets;
+        }
+
+        /** Reads the posts.csv rows starting at the given byte offsets, in that order, with details filled in. */
+        private List<PostItem> readPostsAt(long[] offsets) {
+            // indexed rows are complete and posts.csv is append-only, so no snapshot is needed
+            List<PostItem> page = new ArrayList<>(offsets.length);
+            try (RandomAccessFile raf = new RandomAccessFile(postsFile, "r")) {
+                for (long off : offsets) {
+                    if (off < 0) continue;
+                    String[] a = splitCsv(readLineAt(raf, off));
+                    if (a.length >= 4) page.add(new PostItem(Integer.parseInt(a[0]), Integer.parseInt(a[1]), "?", a[2], a[3], 0, 0, a.length >= 5 ? a[4] : ""));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            fillDetails(page);
+            return page;
+        }
+
+        @Override
+        public List<PostItem> searchPosts(String query, int offset, int limit) {
+            SearchIndex idx = ensureSearchIndex();
+            if (idx == null) return new ArrayList<>();
+            int[] ids = idx.searchPosts(query, offset, limit);
+            long[] offsets;
+            synchronized (postsLock) {
+                if (!ensurePostIndex()) return new ArrayList<>();
+                // a hit whose row is still being written has no offset yet and is skipped
+                offsets = new long[ids.length];
+                for (int i = 0; i < ids.length; i++) offsets[i] = ids[i] < postOffsets.length ? postOffsets[ids[i]] : -1;
+            }
+            return readPostsAt(offsets);
+        }
+
+        @Override
+        public List<String> searchUsers(String query, int offset, int limit) {
+            SearchIndex idx = ensureSearchIndex();
+            return idx == null ? new ArrayList<>() : idx.searchUsers(query, offset, limit);
+        }
+
+        /** Builds the search index from the login table and one pass over posts.csv. The index guards itself. */
+        private SearchIndex ensureSearchIndex() {
+            if (search != null) return search;
+            if (!ensureLogins()) return null;
+            // both locks stop new rows, and the barrier lets queued ones reach the file, so nothing is missed or added twice
+            synchronized (usersLock) {
+                synchronized (postsLock) {
+                    if (search != null) return search;
+                    log.barrier();
+                    SearchIndex idx = new SearchIndex();
+                    for (String name : logins.keySet()) idx.addUser(name);
+                    try (CsvTokenizer posts = tokenize(postsFile)) {
+                        while (posts.next()) if (posts.fields() >= 4) idx.addPost(posts.intField(0), posts.field(2));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return null;
                     }
+                    search = idx;
+                    return idx;
                 }
-            } catch (IOException ignored) {}
+            }
+        }
 
-            List<PostItem> posts = new ArrayList<>();
-            try (BufferedReader br = new BufferedReader(new FileReader(postsFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 5) {
-                        int pid = Integer.parseInt(a[0]);
-                        int uid = Integer.parseInt(a[1]);
-                        String content = a[2];
-                        String createdAt = a[3];
-                        String img = a[4];
-                        if (followees.contains(uid)) {
-                            int likes = countLikes(pid);
-                            int comments = countComments(pid);
-                            String uname = lookupUsername(uid);
-                            posts.add(new PostItem(pid, uid, uname, content, createdAt, likes, comments, img));
+        /** Builds postId -> byte offset and per-author post id lists with one raw pass over posts.csv. Caller holds postsLock. */
+        private boolean ensurePostIndex() {
+            if (postOffsets != null) return true;
+            // rows queued before now reach the file first; ones queued later are added by their addPost
+            log.barrier();
+            long[] offsets = new long[Math.max(nextPostId.get(), 16)];
+            Arrays.fill(offsets, -1);
+            Map<Integer, IntList> byAuthor = new HashMap<>();
+            try (InputStream in = new BufferedInputStream(log.openSnapshot(postsFile))) {
+                long pos = 0, lineStart = 0;
+                int field = 0, pid = 0, uid = 0, b;
+                boolean skipping = false;
+                while ((b = in.read()) != -1) {
+                    pos++;
+                    if (b == '\n') {
+                        if (field >= 2 && pid > 0) {
+                            if (pid >= offsets.length) {
+                                int n = offsets.length;
+                                offsets = Arrays.copyOf(offsets, Math.max(pid + 1, n * 2));
+                                Arrays.fill(offsets, n, offsets.length, -1);
+                            }
+                            offsets[pid] = lineStart;
+                            byAuthor.computeIfAbsent(uid, k -> new IntList()).add(pid);
                         }
+                        lineStart = pos; field = 0; pid = 0; uid = 0; skipping = false;
+                    } else if (skipping) {
+                        // only the two leading id columns are needed
+                    } else if (b == ',') {
+                        if (++field == 2) skipping = true;
+                    } else if (b >= '0' && b <= '9') {
+                        if (field == 0) pid = pid * 10 + (b - '0'); else uid = uid * 10 + (b - '0');
                     }
                 }
-            } catch (IOException ignored) {}
-            posts.sort((a,b) -> b.createdAt.compareTo(a.createdAt));
-            return posts;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            byAuthor.values().forEach(IntList::sort);
+            postOffsets = offsets;
+            postsByAuthor = byAuthor;
+            return true;
         }
 
-        private int countLikes(int postId) {
-            int c = 0;
-            try (BufferedReader br = new BufferedReader(new FileReader(likesFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 2 && Integer.parseInt(a[0]) == postId) c++;
-                }
-            } catch (IOException ignored) {}
-            return c;
+        private static String readLineAt(RandomAccessFile raf, long offset) throws IOException {
+            raf.seek(offset);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            int b;
+            while ((b = raf.read()) != -1 && b != '\n') line.write(b);
+            Metrics.bytesRead(line.size() + 1);
+            return new String(line.toByteArray(), Charset.defaultCharset());
         }
 
-        private int countComments(int postId) {
-            int c = 0;
-            try (BufferedReader br = new BufferedReader(new FileReader(commentsFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 3 && Integer.parseInt(a[1]) == postId) c++;
+        /** One streaming pass over posts.csv; names and counts come from the caches. A null authors set selects every post. */
+        private List<PostItem> readPosts(IntSet authors) {
+            List<PostItem> posts = new ArrayList<>();
+            try (CsvTokenizer t = tokenize(postsFile)) {
+                while (t.next()) {
+                    if (t.fields() < 4) continue;
+                    int uid = t.intField(1);
+                    // strings are only built for rows that are returned
+                    if (authors == null || authors.contains(uid))
+                        posts.add(new PostItem(t.intField(0), uid, "?", t.field(2), t.field(3), 0, 0, t.fields() >= 5 ? t.field(4) : ""));
                 }
             } catch (IOException ignored) {}
-            return c;
+            fillDetails(posts);
+            return posts;
+        }
+
+        /** Fills in counts from the counter cache and author names from the username cache. */
+        private void fillDetails(List<PostItem> posts) {
+            if (posts.isEmpty() || !ensureLogins()) return;
+            for (PostItem pi : posts) {
+                pi.likes = counters.likes(pi.postId);
+                pi.comments = counters.comments(pi.postId);
+                pi.username = usernames.getOrDefault(pi.userId, "?");
+            }
         }
 
         @Override
         public List<String> allUsernames() {
-            List<String> names = new ArrayList<>();
-            try (BufferedReader br = new BufferedReader(new FileReader(usersFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 2) names.add(a[1]);
-                }
-            } catch (IOException ignored) {}
+            if (!ensureLogins()) return new ArrayList<>();
+            List<String> names = new ArrayList<>(logins.keySet());
             Collections.sort(names);
             return names;
         }
 
         @Override
-        public synchronized void follow(int followerId, int followeeId) {
+        public void follow(int followerId, int followeeId) {
             if (followerId == followeeId) return;
-            try (FileWriter fw = new FileWriter(followsFile, true)) {
-                fw.append(followerId + "," + followeeId + "\n");
-            } catch (IOException e) {
-                e.printStackTrace();
+            CompletableFuture<Long> written;
+            // the stripe keeps one follower's log and graph order identical; the commit is awaited outside it
+            synchronized (graph.stripe(followerId)) {
+                if (graph.isFollowing(followerId, followeeId)) return;
+                graph.follow(followerId, followeeId);
+                written = log.appendAsync(followsFile, followerId + "," + followeeId);
+            }
+            if (written.join() < 0) {
+                synchronized (graph.stripe(followerId)) { graph.unfollow(followerId, followeeId); }
+                return;
             }
+            events.followChanged(followerId, followeeId, true);
         }
 
         @Override
-        public synchronized void like(int postId, int userId) {
-            try (FileWriter fw = new FileWriter(likesFile, true)) {
-                fw.append(postId + "," + userId + "\n");
-            } catch (IOException e) {
-                e.printStackTrace();
+        public void unfollow(int followerId, int followeeId) {
+            CompletableFuture<Long> written;
+            synchronized (graph.stripe(followerId)) {
+                if (!graph.isFollowing(followerId, followeeId)) return;
+                graph.unfollow(followerId, followeeId);
+                written = log.appendAsync(followsFile, followerId + "," + followeeId + "," + SocialGraph.UNFOLLOW);
             }
+            if (written.join() < 0) {
+                synchronized (graph.stripe(followerId)) { graph.follow(followerId, followeeId); }
+                return;
+            }
+            events.followChanged(followerId, followeeId, false);
         }
 
         @Override
-        public synchronized void comment(int postId, int userId, String text) {
-            // use millisecond timestamp for comment id to avoid managing counters
-            long cid = System.currentTimeMillis();
-            try (FileWriter fw = new FileWriter(commentsFile, true)) {
-                fw.append(cid + "," + postId + "," + userId + "," + escape(text) + "\n");
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        public boolean isFollowing(int followerId, int followeeId) {
+            return graph.isFollowing(followerId, followeeId);
         }
 
         @Override
-        public List<PostItem> fetchAllPosts() {
-            List<PostItem> list = new ArrayList<>();
-            try (BufferedReader br = new BufferedReader(new FileReader(postsFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 5) {
-                        int pid = Integer.parseInt(a[0]);
-                        int uid = Integer.parseInt(a[1]);
-                        String content = a[2];
-                        String createdAt = a[3];
-                        String img = a[4];
-                        int likes = countLikes(pid);
-                        int comments = countComments(pid);
-                        String uname = lookupUsername(uid);
-                        list.add(new PostItem(pid, uid, uname, content, createdAt, likes, comments, img));
-                    }
-                }
-            } catch (IOException ignored) {}
-            return list;
+        public List<String> followers(int userId) {
+            List<String> names = new ArrayList<>();
+            if (!ensureLogins()) return names;
+            for (int f : graph.followers(userId)) names.add(usernames.getOrDefault(f, "?"));
+            Collections.sort(names);
+            return names;
         }
 
         @Override
-        public String getAvatarFilename(int userId) {
-            try (BufferedReader br = new BufferedReader(new FileReader(usersFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 4 && Integer.parseInt(a[0]) == userId) return a[3];
-                }
-            } catch (IOException ignored) {}
-            return null;
+        public int followerCount(int userId) {
+            return graph.followerCount(userId);
         }
 
         @Override
-        public synchronized void setAvatar(int userId, String filename) {
-            try {
-                File temp = new File("users_tmp.csv");
-                try (BufferedReader br = new BufferedReader(new FileReader(usersFile));
-                     FileWriter fw = new FileWriter(temp)) {
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        String[] a = splitCsv(line);
-                        if (a.length >= 1 && Integer.parseInt(a[0]) == userId) {
-                            String uname = a.length >= 2 ? a[1] : "";
-                            String pwd = a.length >= 3 ? a[2] : "";
-                            fw.append(a[0] + "," + escape(uname) + "," + escape(pwd) + "," + escape(filename) + "\n");
-                        } else fw.append(line + "\n");
-                    }
+        public void like(int postId, int userId) {
+            // only likes of the same post contend; everyone shares the group commit
+            counters.record(() -> {
+                CompletableFuture<Long> written;
+                synchronized (counters.likeStripe(postId)) {
+                    if (!counters.onLike(postId, userId)) return;
+                    written = log.appendAsync(likesFile, postId + "," + userId);
                 }
-                Files.move(temp.toPath(), usersFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+                if (written.join() < 0) {
+                    synchronized (counters.likeStripe(postId)) { counters.onUnlike(postId, userId); }
+                    return;
+                }
+                events.countersChanged(postId, counters.likes(postId), counters.comments(postId));
+            });
         }
 
-        private String lookupUsername(int uid) {
-            try (BufferedReader br = new BufferedReader(new FileReader(usersFile))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] a = splitCsv(line);
-                    if (a.length >= 2 && Integer.parseInt(a[0]) == uid) return a[1];
+        @Override
+        public void unlike(int postId, int userId) {
+            counters.record(() -> {
+                CompletableFuture<Long> written;
+                synchronized (counters.likeStripe(postId)) {
+                    if (!counters.onUnlike(postId, userId)) return;
+                    written = log.appendAsync(likesFile, postId + "," + userId + "," + PostLikes.UNLIKE);
                 }
-            } catch (IOException ignored) {}
-            return "?";
+                if (written.join() < 0) {
+                    synchronized (counters.likeStripe(postId)) { counters.onLike(postId, userId); }
+                    return;
+                }
+                events.countersChanged(postId, counters.likes(postId), counters.comments(postId));
+            });
         }
 
-        private static String escape(String s) {
-            return s == null ? "" : s.replace("\n", " ").replace(",", "¬");
+        @Override
+        public boolean hasLiked(int postId, int userId) {
+            return counters.hasLiked(postId, userId);
         }
 
-        private static String[] splitCsv(String line) {
-            // we use '¬' as escaped comma marker in escape()
-            return line.split("(?<!¬),");
+        @Override
+        public void comment(int postId, int userId, String text) {
+            // use millisecond timestamp for comment id to avoid managing counters
+            long cid = System.currentTimeMillis();
+            counters.record(() -> {
+                if (log.append(commentsFile, cid + "," + postId + "," + userId + "," + escape(text)) < 0) return;
+                counters.onComment(postId);
+                events.countersChanged(postId, counters.likes(postId), counters.comments(postId));
+            });
         }
-    }
 
-    // --- UI components ---
-    private DataStore store;
+        @Override
+        public List<PostItem> fetchAllPosts() {
+            return readPosts(null);
+        }
 
-    private CardLayout cards = new CardLayout();
+        @Override
+        public String getAvatarFilename(int userId) {
+            return attributes.get(userId, UserAttributes.AVATAR);
+        }
+
+        @Override
+        public void setAvatar(int userId, String filename) {
+            attributes.put(userId, UserAttributes.AVATAR, filename);
+        }
+
+        @Override public void addListener(Listener l) { events.add(l); }
+        @Override public void removeListener(Listener l) { events.remove(l); }
+
+        /** Replaces the user's password column; only legacy-password upgrades need this. Caller holds usersLock. */
+        private boolean rewritePassword(int userId, String password) {
+            // users.csv is replaced under the log so its long-lived channel is reopened on the new file
+            return log.rewrite(usersFile, () -> {
+                File temp = file("users_tmp.csv");
+                // snapshots of users.csv are held back during the rewrite, so read the file directly
+                try (CsvTokenizer t = new CsvTokenizer(new FileReader(usersFile));
+                     Writer fw = new BufferedWriter(new FileWriter(temp))) {
+                    while (t.next()) {
+                        if (t.fieldLength(0) > 0 && t.intField(0) == userId) {
+                            String uname = t.fields() >= 2 ? t.field(1) : "";
+                            String av = t.fields() >= 4 ? t.field(3) : "";
+                            fw.append(userId + "," + uname + "," + password + "," + av + "\n");
+                        } else {
+                            t.writeLine(fw);
+                            fw.append('\n');
+                        }
+                    }
+                }
+                Files.move(temp.toPath(), usersFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            });
+        }
+
+        /** Tokenizes a snapshot of one of the store's logs: complete lines only, taken without any store lock. */
+        private CsvTokenizer tokenize(File f) throws IOException {
+            return new CsvTokenizer(new InputStreamReader(log.openSnapshot(f)));
+        }
+
+        private static String escape(String s) {
+            return s == null ? "" : s.replace("\n", " ").replace(",", "¬");
+        }
+
+        private static String[] splitCsv(String line) {
+            // we use '¬' as escaped comma marker in escape()
+            return line.split("(?<!¬),");
+        }
+    }
+
+    // --- Streaming CSV tokenizer: fields are index ranges into a reusable char window, strings only on request ---
+    static final class CsvTokenizer implements Closeable {
+        private static final char ESCAPED_COMMA = '¬'; // see CSVStore.escape
+
+        private final Reader in;
+        private char[] buf;
+        private int pos, limit, scan; // unread chars are buf[pos, limit); scan = where the newline search resumes
+        private boolean eof;
+        private int lineStart, lineEnd;
+        private int[] starts = new int[8], ends = new int[8];
+        private int count;
+
+        CsvTokenizer(Reader in) { this(in, 1 << 16); }
+        CsvTokenizer(Reader in, int bufferChars) { this.in = in; this.buf = new char[bufferChars]; }
+
+        /** Advances to the next line; false at end of input. */
+        boolean next() throws IOException {
+            while (true) {
+                for (int i = scan; i < limit; i++) {
+                    if (buf[i] == '\n') {
+                        split(pos, i);
+                        pos = scan = i + 1;
+                        return true;
+                    }
+                }
+                scan = limit;
+                if (eof) {
+                    if (pos == limit) return false;
+                    split(pos, limit); // last line without a newline
+                    pos = scan = limit;
+                    return true;
+                }
+                fill();
+            }
+        }
+
+        private void fill() throws IOException {
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos; scan -= pos; pos = 0;
+            }
+            if (limit == buf.length) buf = Arrays.copyOf(buf, buf.length * 2); // a single line longer than the window
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n < 0) eof = true; else limit += n;
+        }
+
+        // same rule as splitCsv: a comma splits unless it directly follows the escape marker
+        private void split(int from, int to) {
+            if (to > from && buf[to - 1] == '\r') to--;
+            lineStart = from; lineEnd = to;
+            count = 0;
+            int fieldStart = from;
+            for (int i = from; i < to; i++) {
+                if (buf[i] == ',' && (i == from || buf[i - 1] != ESCAPED_COMMA)) {
+                    addField(fieldStart, i);
+                    fieldStart = i + 1;
+                }
+            }
+            addField(fieldStart, to);
+        }
+
+        private void addField(int s, int e) {
+            if (count == starts.length) { starts = Arrays.copyOf(starts, count * 2); ends = Arrays.copyOf(ends, count * 2); }
+            starts[count] = s; ends[count] = e; count++;
+        }
+
+        /** Number of fields on the current line, counting trailing empty ones (unlike String.split). */
+        int fields() { return count; }
+
+        int fieldLength(int i) { return ends[i] - starts[i]; }
+
+        String field(int i) { return new String(buf, starts[i], ends[i] - starts[i]); }
+
+        boolean fieldEquals(int i, String s) {
+            int len = ends[i] - starts[i];
+            if (s == null || s.length() != len) return false;
+            for (int k = 0, j = starts[i]; k < len; k++, j++) if (buf[j] != s.charAt(k)) return false;
+            return true;
+        }
+
+        /** Parses the field as a decimal int without allocating; same failures as Integer.parseInt. */
+        int intField(int i) {
+            long v = longField(i);
+            if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw new NumberFormatException("out of int range: " + field(i));
+            return (int) v;
+        }
+
+        long longField(int i) {
+            int p = starts[i], e = ends[i];
+            boolean neg = false;
+            if (p < e && (buf[p] == '-' || buf[p] == '+')) neg = buf[p++] == '-';
+            if (p == e || e - p > 18) throw new NumberFormatException("not a number: \"" + field(i) + "\"");
+            long v = 0;
+            for (; p < e; p++) {
+                int d = buf[p] - '0';
+                if (d < 0 || d > 9) throw new NumberFormatException("not a number: \"" + field(i) + "\"");
+                v = v * 10 + d;
+            }
+            return neg ? -v : v;
+        }
+
+        /** Copies the current line, without its newline, straight from the window. */
+        void writeLine(Writer w) throws IOException { w.write(buf, lineStart, lineEnd - lineStart); }
+
+        @Override public void close() throws IOException { in.close(); }
+    }
+
+    // --- CSV parsing benchmark: java SocialMediaAppFull --bench-csv [rows] ---
+    static class CsvBenchmark {
+        static void run(String[] args) throws IOException {
+            int rows = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+            File likes = File.createTempFile("likes-bench", ".csv");
+            likes.deleteOnExit();
+            Random rnd = new Random(7);
+            try (Writer w = new BufferedWriter(new FileWriter(likes))) {
+                for (int i = 0; i < rows; i++) w.append(String.valueOf(1 + rnd.nextInt(50_000))).append(',').append(String.valueOf(1 + rnd.nextInt(10_000))).append('\n');
+            }
+            System.out.printf("%d rows, %d bytes%n", rows, likes.length());
+            for (int round = 0; round < 3; round++) { // first rounds are warm-up; watch the last
+                measure("BufferedReader + splitCsv + parseInt", () -> {
+                    int c = 0;
+                    try (BufferedReader br = new BufferedReader(new FileReader(likes))) {
+                        String line;
+                        while ((line = br.readLine()) != null) {
+                            String[] a = CSVStore.splitCsv(line);
+                            if (a.length >= 2 && Integer.parseInt(a[0]) == 42) c++;
+                        }
+                    }
+                    return c;
+                });
+                measure("CsvTokenizer", () -> {
+                    int c = 0;
+                    try (CsvTokenizer t = new CsvTokenizer(new FileReader(likes))) {
+                        while (t.next()) if (t.fields() >= 2 && t.intField(0) == 42) c++;
+                    }
+                    return c;
+                });
+            }
+        }
+
+        interface Scan { int run() throws IOException; }
+
+        private static void measure(String name, Scan scan) throws IOException {
+            java.lang.management.ThreadMXBean mx = java.lang.management.ManagementFactory.getThreadMXBean();
+            com.sun.management.ThreadMXBean alloc = mx instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) mx : null;
+            long tid = Thread.currentThread().getId();
+            long a0 = alloc == null ? 0 : alloc.getThreadAllocatedBytes(tid);
+            long t0 = System.nanoTime();
+            int hits = scan.run();
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            long bytes = alloc == null ? -1 : alloc.getThreadAllocatedBytes(tid) - a0;
+            System.out.printf("%-38s %6d ms  %10.1f MB allocated  (%d matches)%n", name, ms, bytes / 1e6, hits);
+        }
+    }
+
+    // --- In-memory indexed store: CSV files are read once in init() and then only appended to ---
+    static class IndexedStore implements DataStore, DataExporter.Engagement {
+        static class UserRow {
+            final int id; final String username; String password, avatar;
+            UserRow(int id, String username, String password, String avatar) { this.id = id; this.username = username; this.password = password; this.avatar = avatar; }
+        }
+        static class PostRow {
+            final int postId, userId; final String content, createdAt, imageFilename; int comments;
+            PostRow(int postId, int userId, String content, String createdAt, String imageFilename) { this.postId = postId; this.userId = userId; this.content = content; this.createdAt = createdAt; this.imageFilename = imageFilename; }
+        }
+
+        private final File usersFile = new File("users.csv");
+        private final File postsFile = new File("posts.csv");
+        private final File followsFile = new File("follows.csv");
+        private final File likesFile = new File("likes.csv");
+        private final File commentsFile = new File("comments.csv");
+        private final File metaFile = new File("meta.csv");
+        private final File avatarsDir = new File("avatars");
+        private final File postImagesDir = new File("posts_images");
+
+        // indexes; guarded by this
+        private final Map<Integer, UserRow> usersById = new HashMap<>();
+        private final Map<String, Integer> idsByName = new HashMap<>();
+        private final List<PostRow> posts = new ArrayList<>(); // ascending postId, i.e. file order
+        private final Map<Integer, PostRow> postsById = new HashMap<>();
+        private final SocialGraph graph = new SocialGraph(); // has its own lock
+        private final Map<Integer, IntList> postsByAuthor = new HashMap<>();
+        private final PostLikes likes = new PostLikes();
+        private final SearchIndex search = new SearchIndex();
+        private final FeedFanout fanout; // null: timelines are built by fan-out-on-read
+        private final GroupCommitLog log = GroupCommitLog.fromSystemProperties();
+        private final UserAttributes attributes = new UserAttributes(new File("attributes.csv"), usersFile, log); // has its own lock
+        private final LogCompactor compactor = new LogCompactor(log);
+        private final StoreEvents events = new StoreEvents();
+
+        private int nextUserId = 1;
+        private int nextPostId = 1;
+
+        IndexedStore() {
+            this(Boolean.getBoolean("social.fanoutOnWrite")
+                    ? new FeedFanout(Integer.getInteger("social.feedCapacity", 500), Integer.getInteger("social.celebrityFollowers", 5000))
+                    : null);
+        }
+
+        IndexedStore(FeedFanout fanout) { this.fanout = fanout; }
+
+        @Override
+        public synchronized boolean init() {
+            try {
+                if (!avatarsDir.exists()) avatarsDir.mkdir();
+                if (!postImagesDir.exists()) postImagesDir.mkdir();
+                if (!metaFile.exists()) metaFile.createNewFile();
+                // opening the log creates missing files and cuts off a line torn by a crash
+                for (File f : new File[] { usersFile, postsFile, followsFile, likesFile, commentsFile }) log.open(f);
+                for (String line : Files.readAllLines(metaFile.toPath())) {
+                    String[] a = line.split(",");
+                    if (a.length == 2) {
+                        if (a[0].equals("nextUserId")) nextUserId = Integer.parseInt(a[1]);
+                        if (a[0].equals("nextPostId")) nextPostId = Integer.parseInt(a[1]);
+                    }
+                }
+                // loading takes max(id) + 1, which also recovers ids handed out after meta.csv was last written
+                loadUsers(); loadPosts(); graph.load(followsFile); loadLikes(); loadComments();
+                attributes.load();
+                compactor.start(() -> compactLogs(false));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> { compactor.stop(); log.close(); saveMeta(); }, "indexedstore-shutdown"));
+                return true;
+            } catch (IOException | NumberFormatException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        private void loadUsers() throws IOException {
+            try (BufferedReader br = new BufferedReader(new FileReader(usersFile))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] a = CSVStore.splitCsv(line);
+                    if (a.length < 2) continue;
+                    UserRow u = new UserRow(Integer.parseInt(a[0]), a[1], a.length >= 3 ? a[2] : "", a.length >= 4 ? a[3] : "");
+                    usersById.put(u.id, u);
+                    if (idsByName.putIfAbsent(u.username, u.id) == null) search.addUser(u.username);
+                    if (u.id >= nextUserId) nextUserId = u.id + 1;
+                }
+            }
+        }
+
+        private void loadPosts() throws IOException {
+            try (BufferedReader br = new BufferedReader(new FileReader(postsFile))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] a = CSVStore.splitCsv(line);
+                    // split() drops a trailing empty image column, so 4 fields is a post without an image
+                    if (a.length < 4) continue;
+                    indexPost(new PostRow(Integer.parseInt(a[0]), Integer.parseInt(a[1]), a[2], a[3], a.length >= 5 ? a[4] : ""));
+                }
+            }
+        }
+
+        private void loadLikes() throws IOException {
+            try (CsvTokenizer t = new CsvTokenizer(new FileReader(likesFile))) {
+                while (t.next()) likes.apply(t);
+            }
+        }
+
+        private void loadComments() throws IOException {
+            try (BufferedReader br = new BufferedReader(new FileReader(commentsFile))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] a = CSVStore.splitCsv(line);
+                    if (a.length < 3) continue;
+                    PostRow p = postsById.get(Integer.parseInt(a[1]));
+                    if (p != null) p.comments++;
+                }
+            }
+        }
+
+        /** One compaction pass over the logs that are due (or all of them); the indexes in memory already hold the compacted state. */
+        void compactLogs(boolean force) {
+            if (force || compactor.due(followsFile)) compactor.compact(followsFile, LogCompactor.Kind.FOLLOWS, null);
+            if (force || compactor.due(likesFile)) compactor.compact(likesFile, LogCompactor.Kind.LIKES, null);
+            if (force || compactor.due(commentsFile)) compactor.compact(commentsFile, LogCompactor.Kind.COMMENTS, null);
+            attributes.compact(force);
+        }
+
+        LogCompactor compactor() { return compactor; }
+
+        @Override
+        public void frozen(DataExporter.Cut cut) throws IOException {
+            likes.frozen(() -> graph.frozen(() -> {
+                log.barrier(); // rows queued before the stripes were taken are in the sets, so they must be in the files too
+                cut.run(likes, graph);
+            }));
+        }
+
+        private void indexPost(PostRow p) {
+            posts.add(p);
+            postsById.put(p.postId, p);
+            postsByAuthor.computeIfAbsent(p.userId, k -> new IntList()).add(p.postId);
+            search.addPost(p.postId, p.content);
+            if (p.postId >= nextPostId) nextPostId = p.postId + 1;
+        }
+
+        /** Withdraws a post whose row failed to commit; its search postings stay and are skipped on lookup. */
+        private void unindexPost(PostRow p) {
+            posts.remove(p);
+            postsById.remove(p.postId);
+            IntList own = postsByAuthor.get(p.userId);
+            if (own != null) own.remove(p.postId);
+        }
+
+        private synchronized void saveMeta() {
+            try (FileWriter fw = new FileWriter(metaFile, false)) {
+                fw.write("nextUserId," + nextUserId + "\n");
+                fw.write("nextPostId," + nextPostId + "\n");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private boolean append(File f, String line) {
+            return log.append(f, line) >= 0;
+        }
+
+        @Override
+        public int createUser(String username, String password) {
+            String name = CSVStore.escape(username);
+            if (getUserId(username) != -1) return -1;
+            // PBKDF2 is slow on purpose, so it runs before taking the store lock
+            String hashed = PasswordHasher.SHARED.hash(password);
+            int id;
+            CompletableFuture<Long> written;
+            synchronized (this) {
+                if (idsByName.containsKey(name)) return -1;
+                // the name is taken from the moment the row is queued; the commit is awaited outside the lock
+                id = nextUserId++;
+                usersById.put(id, new UserRow(id, name, hashed, ""));
+                idsByName.put(name, id);
+                // id,username,password,avatarFilename
+                written = log.appendAsync(usersFile, id + "," + name + "," + hashed + ",");
+            }
+            boolean ok = written.join() >= 0;
+            synchronized (this) {
+                if (ok) search.addUser(name);
+                else { usersById.remove(id); idsByName.remove(name); }
+            }
+            if (!ok) return -1;
+            events.userAdded(name);
+            return id;
+        }
+
+        @Override
+        public synchronized int getUserId(String username) {
+            // names are indexed in their stored (escaped) form
+            Integer id = idsByName.get(CSVStore.escape(username));
+            return id == null ? -1 : id;
+        }
+
+        @Override
+        public boolean validateLogin(String username, String password) {
+            UserRow u;
+            String stored;
+            synchronized (this) {
+                Integer id = idsByName.get(CSVStore.escape(username));
+                if (id == null) return false;
+                u = usersById.get(id);
+                stored = u.password;
+            }
+            // verification runs on the hasher's pool without the store lock
+            if (!PasswordHasher.SHARED.verify(password, stored)) return false;
+            if (PasswordHasher.SHARED.needsRehash(stored)) {
+                // plaintext or weaker legacy row: store a current hash now that we know the password
+                String hashed = PasswordHasher.SHARED.hash(password);
+                synchronized (this) {
+                    if (u.password.equals(stored)) {
+                        u.password = hashed;
+                        if (!rewriteUsers()) u.password = stored;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean addPost(int userId, String content, String imageFilename) {
+            PostItem added;
+            PostRow p;
+            CompletableFuture<Long> written;
+            synchronized (this) {
+                String now = LocalDateTime.now().format(CSVStore.TIMESTAMP);
+                p = new PostRow(nextPostId, userId, CSVStore.escape(content), now, CSVStore.escape(imageFilename == null ? "" : imageFilename));
+                // indexed in id order when queued, as the search postings need; the commit is awaited outside the lock
+                indexPost(p);
+                // columns: postId,userId,content,createdAt,imageFilename
+                written = log.appendAsync(postsFile, p.postId + "," + userId + "," + p.content + "," + now + "," + p.imageFilename);
+            }
+            boolean ok = written.join() >= 0;
+            synchronized (this) {
+                if (!ok) {
+                    unindexPost(p);
+                    return false;
+                }
+                if (fanout != null) fanout.onPost(userId, p.postId, graph.followers(userId));
+                added = toItem(p);
+            }
+            events.postAdded(added);
+            return true;
+        }
+
+        @Override
+        public synchronized List<PostItem> fetchTimelineForUser(int userId) {
+            if (fanout != null) return fanoutTimeline(userId);
+            IntSet mine = new IntSet();
+            for (int f : graph.followees(userId)) mine.add(f);
+            List<PostItem> list = new ArrayList<>();
+            for (int i = posts.size() - 1; i >= 0; i--) {
+                PostRow p = posts.get(i);
+                if (p.userId == userId || mine.contains(p.userId)) list.add(toItem(p));
+            }
+            list.sort((a,b) -> b.createdAt.compareTo(a.createdAt));
+            return list;
+        }
+
+        /** Reads the user's feed buffer, merging in posts from celebrity followees that were not fanned out. */
+        private List<PostItem> fanoutTimeline(int userId) {
+            int[] mine = graph.followees(userId);
+            IntRing feed = feedOf(userId, mine);
+            IntList ids = new IntList();
+            IntSet seen = new IntSet();
+            for (int i = 0; i < feed.size(); i++) if (seen.add(feed.newest(i))) ids.add(feed.newest(i));
+            for (int f : mine) {
+                if (!fanout.isCelebrity(graph.followerCount(f))) continue;
+                IntList own = postsByAuthor.get(f);
+                if (own == null) continue;
+                for (int i = own.size() - 1, n = 0; i >= 0 && n < fanout.capacity; i--, n++)
+                    if (seen.add(own.get(i))) ids.add(own.get(i));
+            }
+            ids.sort();
+            List<PostItem> list = new ArrayList<>(Math.min(ids.size(), fanout.capacity));
+            for (int i = ids.size() - 1; i >= 0 && list.size() < fanout.capacity; i--) {
+                PostRow p = postsById.get(ids.get(i));
+                if (p != null) list.add(toItem(p));
+            }
+            return list;
+        }
+
+        /** The user's feed buffer; the first read since startup or since a follow materializes it by fan-out-on-read. */
+        private IntRing feedOf(int userId, int[] followees) {
+            IntRing feed = fanout.feed(userId);
+            if (feed != null) return feed;
+            feed = new IntRing(fanout.capacity);
+            IntList all = new IntList();
+            addRecent(all, userId);
+            for (int f : followees) addRecent(all, f);
+            all.sort();
+            for (int i = Math.max(0, all.size() - fanout.capacity); i < all.size(); i++) feed.push(all.get(i));
+            fanout.put(userId, feed);
+            return feed;
+        }
+
+        @Override
+        public synchronized List<PostItem> fetchTimelinePage(int userId, int beforePostId, int limit) {
+            int before = beforePostId <= 0 ? Integer.MAX_VALUE : beforePostId;
+            List<PostItem> page = new ArrayList<>();
+            if (fanout != null) {
+                // the buffer holds the feed from its oldest entry up, so pages inside that range come from it;
+                // older pages fall through to the pull path below, which has no capacity limit
+                int[] mine = graph.followees(userId);
+                IntRing feed = feedOf(userId, mine);
+                int floor = Integer.MAX_VALUE;
+                IntList ids = new IntList();
+                for (int i = 0; i < feed.size(); i++) {
+                    int pid = feed.newest(i);
+                    floor = Math.min(floor, pid);
+                    if (pid < before) ids.add(pid);
+                }
+                List<IntList> celebrities = new ArrayList<>();
+                for (int f : mine)
+                    if (fanout.isCelebrity(graph.followerCount(f)) && postsByAuthor.containsKey(f)) celebrities.add(postsByAuthor.get(f));
+                for (int pid : IntList.mergeNewest(celebrities, before, limit)) if (pid >= floor) ids.add(pid);
+                ids.sort();
+                for (int i = ids.size() - 1, last = -1; i >= 0 && page.size() < limit; i--) {
+                    int pid = ids.get(i);
+                    if (pid == last) continue;
+                    last = pid;
+                    PostRow p = postsById.get(pid);
+                    if (p != null) page.add(toItem(p));
+                }
+                if (page.size() == limit) return page;
+                before = Math.min(before, floor);
+                limit -= page.size();
+            }
+            List<IntList> lists = new ArrayList<>();
+            if (postsByAuthor.containsKey(userId)) lists.add(postsByAuthor.get(userId));
+            for (int f : graph.followees(userId))
+                if (f != userId && postsByAuthor.containsKey(f)) lists.add(postsByAuthor.get(f));
+            for (int pid : IntList.mergeNewest(lists, before, limit)) page.add(toItem(postsById.get(pid)));
+            return page;
+        }
+
+        @Override
+        public synchronized List<PostItem> fetchPostsByUser(int userId, int beforePostId, int limit) {
+            List<PostItem> page = new ArrayList<>();
+            IntList own = postsByAuthor.get(userId);
+            if (own == null) return page;
+            for (int pid : IntList.mergeNewest(Collections.singletonList(own), beforePostId <= 0 ? Integer.MAX_VALUE : beforePostId, limit))
+                page.add(toItem(postsById.get(pid)));
+            return page;
+        }
+
+        private void addRecent(IntList into, int authorId) {
+            IntList own = postsByAuthor.get(authorId);
+            if (own == null) return;
+            for (int i = Math.max(0, own.size() - fanout.capacity); i < own.size(); i++) into.add(own.get(i));
+        }
+
+        @Override
+        public synchronized List<String> allUsernames() {
+            List<String> names = new ArrayList<>(usersById.size());
+            for (UserRow u : usersById.values()) names.add(u.username);
+            Collections.sort(names);
+            return names;
+        }
+
+        // follow/like/comment wait for their commit outside every lock so concurrent callers share one group commit
+
+        @Override
+        public void follow(int followerId, int followeeId) {
+            if (followerId == followeeId) return;
+            CompletableFuture<Long> written;
+            // the stripe keeps one follower's log and graph order identical; the commit is awaited outside it
+            synchronized (graph.stripe(followerId)) {
+                if (graph.isFollowing(followerId, followeeId)) return;
+                graph.follow(followerId, followeeId);
+                written = log.appendAsync(followsFile, followerId + "," + followeeId);
+            }
+            if (written.join() < 0) {
+                synchronized (graph.stripe(followerId)) { graph.unfollow(followerId, followeeId); }
+                return;
+            }
+            if (fanout != null) synchronized (this) { fanout.invalidate(followerId); }
+            events.followChanged(followerId, followeeId, true);
+        }
+
+        @Override
+        public void unfollow(int followerId, int followeeId) {
+            CompletableFuture<Long> written;
+            synchronized (graph.stripe(followerId)) {
+                if (!graph.isFollowing(followerId, followeeId)) return;
+                graph.unfollow(followerId, followeeId);
+                written = log.appendAsync(followsFile, followerId + "," + followeeId + "," + SocialGraph.UNFOLLOW);
+            }
+            if (written.join() < 0) {
+                synchronized (graph.stripe(followerId)) { graph.follow(followerId, followeeId); }
+                return;
+            }
+            if (fanout != null) synchronized (this) { fanout.invalidate(followerId); }
+            events.followChanged(followerId, followeeId, false);
+        }
+
+        @Override
+        public boolean isFollowing(int followerId, int followeeId) {
+            return graph.isFollowing(followerId, followeeId);
+        }
+
+        @Override
+        public synchronized List<String> followers(int userId) {
+            List<String> names = new ArrayList<>();
+            for (int f : graph.followers(userId)) {
+                UserRow u = usersById.get(f);
+                if (u != null) names.add(u.username);
+            }
+            Collections.sort(names);
+            return names;
+        }
+
+        @Override
+        public int followerCount(int userId) {
+            return graph.followerCount(userId);
+        }
+
+        @Override
+        public void like(int postId, int userId) {
+            CompletableFuture<Long> written;
+            // the post's stripe keeps its like set and log in the same order; the commit is awaited outside it
+            synchronized (likes.stripe(postId)) {
+                if (likes.contains(postId, userId)) return;
+                likes.add(postId, userId);
+                written = log.appendAsync(likesFile, postId + "," + userId);
+            }
+            if (written.join() < 0) {
+                synchronized (likes.stripe(postId)) { likes.remove(postId, userId); }
+                return;
+            }
+            countersChanged(postId);
+        }
+
+        @Override
+        public void unlike(int postId, int userId) {
+            CompletableFuture<Long> written;
+            synchronized (likes.stripe(postId)) {
+                if (!likes.contains(postId, userId)) return;
+                likes.remove(postId, userId);
+                written = log.appendAsync(likesFile, postId + "," + userId + "," + PostLikes.UNLIKE);
+            }
+            if (written.join() < 0) {
+                synchronized (likes.stripe(postId)) { likes.add(postId, userId); }
+                return;
+            }
+            countersChanged(postId);
+        }
+
+        private void countersChanged(int postId) {
+            int comments;
+            synchronized (this) {
+                PostRow p = postsById.get(postId);
+                comments = p == null ? 0 : p.comments;
+            }
+            events.countersChanged(postId, likes.count(postId), comments);
+        }
+
+        @Override
+        public boolean hasLiked(int postId, int userId) {
+            return likes.contains(postId, userId);
+        }
+
+        @Override
+        public void comment(int postId, int userId, String text) {
+            // use millisecond timestamp for comment id to avoid managing counters
+            long cid = System.currentTimeMillis();
+            if (!append(commentsFile, cid + "," + postId + "," + userId + "," + CSVStore.escape(text))) return;
+            synchronized (this) {
+                PostRow p = postsById.get(postId);
+                if (p != null) p.comments++;
+            }
+            countersChanged(postId);
+        }
+
+        @Override
+        public synchronized List<PostItem> fetchAllPosts() {
+            List<PostItem> list = new ArrayList<>(posts.size());
+            for (PostRow p : posts) list.add(toItem(p));
+            return list;
+        }
+
+        @Override
+        public synchronized List<PostItem> searchPosts(String query, int offset, int limit) {
+            List<PostItem> list = new ArrayList<>();
+            for (int pid : search.searchPosts(query, offset, limit)) {
+                PostRow p = postsById.get(pid);
+                if (p != null) list.add(toItem(p));
+            }
+            return list;
+        }
+
+        @Override
+        public List<String> searchUsers(String query, int offset, int limit) {
+            return search.searchUsers(query, offset, limit);
+        }
+
+        @Override
+        public String getAvatarFilename(int userId) {
+            return attributes.get(userId, UserAttributes.AVATAR);
+        }
+
+        @Override
+        public void setAvatar(int userId, String filename) {
+            synchronized (this) { if (!usersById.containsKey(userId)) return; }
+            attributes.put(userId, UserAttributes.AVATAR, filename);
+        }
+
+        @Override public void addListener(Listener l) { events.add(l); }
+        @Override public void removeListener(Listener l) { events.remove(l); }
+
+        /** Rewrites users.csv from memory rather than re-parsing it; the avatar column is only kept for older versions. Caller holds the lock. */
+        private boolean rewriteUsers() {
+            File temp = new File("users_tmp.csv");
+            return log.rewrite(usersFile, () -> {
+                try (Writer fw = new BufferedWriter(new FileWriter(temp))) {
+                    List<UserRow> rows = new ArrayList<>(usersById.values());
+                    rows.sort(Comparator.comparingInt(u -> u.id));
+                    for (UserRow u : rows) fw.append(u.id + "," + u.username + "," + u.password + "," + u.avatar + "\n");
+                }
+                Files.move(temp.toPath(), usersFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            });
+        }
+
+        private PostItem toItem(PostRow p) {
+            UserRow u = usersById.get(p.userId);
+            return new PostItem(p.postId, p.userId, u == null ? "?" : u.username, p.content, p.createdAt, likes.count(p.postId), p.comments, p.imageFilename);
+        }
+    }
+
+    // --- Memory-mapped columnar post store: fixed-width post columns plus a content heap; everything else via CSVStore ---
+    static class MappedPostStore implements DataStore, DataExporter.Engagement {
+        private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        // same schedule as the CSV logs: 0 forces every post before addPost returns
+        private static final long SYNC_MILLIS = Long.getLong("social.log.syncMillis", 50);
+        private static final Metrics.Op MIGRATE = Metrics.op("mapped.migrate");
+
+        /** One fixed-width column, mapped read/write and remapped at double the capacity when it fills up. */
+        static final class Column {
+            final String name; final int width;
+            private FileChannel ch;
+            private MappedByteBuffer buf;
+            private int capacity; // rows
+
+            Column(String name, int width) { this.name = name; this.width = width; }
+
+            void open(File dir, int minRows) throws IOException {
+                ch = FileChannel.open(new File(dir, name + ".col").toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                map(Math.max(minRows, Math.max(1024, (int) (ch.size() / width))));
+            }
+
+            void ensure(int rows) throws IOException {
+                if (rows > capacity) map(Math.max(rows, capacity * 2));
+            }
+
+            private void map(int rows) throws IOException {
+                capacity = rows;
+                buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, (long) rows * width);
+            }
+
+            int getInt(int row) { return buf.getInt(row * width); }
+            long getLong(int row) { return buf.getLong(row * width); }
+            void putInt(int row, int v) { buf.putInt(row * width, v); }
+            void putLong(int row, long v) { buf.putLong(row * width, v); }
+            void close() throws IOException { ch.close(); }
+        }
+
+        private final File dir;
+        private final CSVStore base = new CSVStore();
+        private final Column postIds = new Column("post_id", 4), userIds = new Column("user_id", 4), createdAt = new Column("created_at", 8),
+                contentOff = new Column("content_off", 8), contentLen = new Column("content_len", 4),
+                imageOff = new Column("image_off", 8), imageLen = new Column("image_len", 4);
+        private final Column[] columns = { postIds, userIds, createdAt, contentOff, contentLen, imageOff, imageLen };
+        private FileChannel heap;
+        // header: row count and heap end; written after the row itself, so a torn append is simply not visible.
+        // force() writes the heap and columns out before the header; if an OS crash still lets the header reach disk
+        // ahead of them, openFiles() trims the rows that did not make it
+        private FileChannel headerCh;
+        private MappedByteBuffer header;
+        private int rows;
+        private long heapEnd;
+        private boolean dirty; // rows appended since the last force(); guarded by this
+        private ScheduledExecutorService flusher;
+        private int nextPostId = 1;
+        private SearchIndex search; // post content only, built on first search; guarded by this
+        private Map<Integer, IntList> rowsByAuthor; // ascending row numbers per author, built on first profile read; guarded by this
+        private final StoreEvents events = new StoreEvents();
+
+        MappedPostStore(File dir) { this.dir = dir; }
+
+        @Override
+        public synchronized boolean init() {
+            if (!base.init()) return false;
+            try {
+                openFiles();
+                // an unmigrated data directory: without this the old posts vanish and new posts reuse their ids,
+                // inheriting their rows in likes.csv and comments.csv
+                if (rows == 0 && base.nextPostId.get() > 1) {
+                    closeFiles();
+                    // reported as the mapped.migrate operation (count and bytes of posts.csv read), not on stdout
+                    long start = Metrics.start();
+                    migrate(base.postsFile, dir);
+                    MIGRATE.read(base.postsFile.length());
+                    MIGRATE.record(start);
+                    openFiles();
+                }
+                nextPostId = rows == 0 ? 1 : postIds.getInt(rows - 1) + 1;
+                // ids in posts.csv stay taken even if it has rows the columns lack
+                nextPostId = Math.max(nextPostId, base.nextPostId.get());
+                if (SYNC_MILLIS > 0) {
+                    flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = new Thread(r, "mapped-posts-sync");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    flusher.scheduleWithFixedDelay(this::force, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                Runtime.getRuntime().addShutdownHook(new Thread(this::force, "mapped-posts-force"));
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        private void openFiles() throws IOException {
+            if (!dir.exists()) dir.mkdirs();
+            headerCh = FileChannel.open(new File(dir, "header.bin").toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            header = headerCh.map(FileChannel.MapMode.READ_WRITE, 0, 16);
+            rows = (int) header.getLong(0);
+            heapEnd = header.getLong(8);
+            for (Column c : columns) c.open(dir, rows);
+            heap = FileChannel.open(new File(dir, "content.heap").toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int whole = rows;
+            while (whole > 0 && !intact(whole - 1)) whole--;
+            if (whole < rows) {
+                rows = whole;
+                heapEnd = rows == 0 ? 0 : imageOff.getLong(rows - 1) + imageLen.getInt(rows - 1);
+                header.putLong(8, heapEnd);
+                header.putLong(0, rows);
+            }
+        }
+
+        /** Whether row's columns were written (ids only grow, so a zeroed row fails) and its bytes are inside the heap. */
+        private boolean intact(int row) throws IOException {
+            int id = postIds.getInt(row);
+            if (id <= 0 || row > 0 && id <= postIds.getInt(row - 1)) return false;
+            long off = contentOff.getLong(row), end = imageOff.getLong(row) + imageLen.getInt(row);
+            return off >= 0 && imageOff.getLong(row) == off + contentLen.getInt(row) && end <= heap.size();
+        }
+
+        /**
+         * Writes appended rows to disk: heap and columns first, then the header that makes them visible. The I/O runs
+         * outside the lock on the current mappings; a row appended meanwhile may get its header out first, which
+         * openFiles() repairs.
+         */
+        private void force() {
+            FileChannel h;
+            MappedByteBuffer[] bufs = new MappedByteBuffer[columns.length];
+            MappedByteBuffer head;
+            synchronized (this) {
+                if (!dirty || heap == null) return;
+                dirty = false;
+                h = heap; head = header;
+                for (int i = 0; i < columns.length; i++) bufs[i] = columns[i].buf;
+            }
+            try {
+                h.force(false);
+                for (MappedByteBuffer b : bufs) b.force();
+                head.force();
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (this) { dirty = true; }
+            }
+        }
+
+        private void appendRow(int postId, int userId, long epochSeconds, String content, String image) throws IOException {
+            byte[] c = content.getBytes(StandardCharsets.UTF_8), i = image.getBytes(StandardCharsets.UTF_8);
+            heap.write(ByteBuffer.wrap(c), heapEnd);
+            heap.write(ByteBuffer.wrap(i), heapEnd + c.length);
+            for (Column col : columns) col.ensure(rows + 1);
+            postIds.putInt(rows, postId);
+            userIds.putInt(rows, userId);
+            createdAt.putLong(rows, epochSeconds);
+            contentOff.putLong(rows, heapEnd);
+            contentLen.putInt(rows, c.length);
+            imageOff.putLong(rows, heapEnd + c.length);
+            imageLen.putInt(rows, i.length);
+            heapEnd += c.length + i.length;
+            rows++;
+            dirty = true;
+            header.putLong(8, heapEnd);
+            header.putLong(0, rows);
+        }
+
+        @Override
+        public boolean addPost(int userId, String content, String imageFilename) {
+            PostItem added;
+            synchronized (this) {
+                try {
+                    appendRow(nextPostId, userId, Instant.now().getEpochSecond(), CSVStore.escape(content), CSVStore.escape(imageFilename == null ? "" : imageFilename));
+                    if (search != null) search.addPost(nextPostId, CSVStore.escape(content));
+                    if (rowsByAuthor != null) rowsByAuthor.computeIfAbsent(userId, k -> new IntList()).add(rows - 1);
+                    nextPostId++;
+                    added = materialize(rows - 1);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            }
+            if (SYNC_MILLIS == 0) force();
+            base.fillDetails(Collections.singletonList(added));
+            events.postAdded(added);
+            return true;
+        }
+
+        @Override
+        public List<PostItem> fetchTimelineForUser(int userId) {
+            return fetchTimelinePage(userId, 0, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public List<PostItem> fetchTimelinePage(int userId, int beforePostId, int limit) {
+            IntSet authors = base.readFollowees(userId);
+            List<PostItem> page = new ArrayList<>();
+            synchronized (this) {
+                // rows are in ascending post id order: find the cursor by binary search, then walk backwards over user_id only
+                int end = beforePostId <= 0 ? rows : rowsBelow(beforePostId);
+                for (int r = end - 1; r >= 0 && page.size() < limit; r--)
+                    if (authors.contains(userIds.getInt(r))) page.add(materialize(r));
+            }
+            base.fillDetails(page);
+            return page;
+        }
+
+        @Override
+        public List<PostItem> fetchPostsByUser(int userId, int beforePostId, int limit) {
+            List<PostItem> page = new ArrayList<>();
+            synchronized (this) {
+                if (rowsByAuthor == null) {
+                    // one pass over the user_id column only
+                    rowsByAuthor = new HashMap<>();
+                    for (int r = 0; r < rows; r++) rowsByAuthor.computeIfAbsent(userIds.getInt(r), k -> new IntList()).add(r);
+                }
+                IntList own = rowsByAuthor.get(userId);
+                if (own != null) {
+                    // row numbers follow post ids, so the cursor row bounds the author's rows too
+                    int end = own.countBelow(beforePostId <= 0 ? rows : rowsBelow(beforePostId));
+                    for (int i = end - 1; i >= 0 && page.size() < limit; i--) page.add(materialize(own.get(i)));
+                }
+            }
+            base.fillDetails(page);
+            return page;
+        }
+
+        @Override
+        public List<PostItem> fetchAllPosts() {
+            List<PostItem> list;
+            synchronized (this) {
+                list = new ArrayList<>(rows);
+                for (int r = 0; r < rows; r++) list.add(materialize(r));
+            }
+            base.fillDetails(list);
+            return list;
+        }
+
+        @Override
+        public List<PostItem> searchPosts(String query, int offset, int limit) {
+            List<PostItem> page = new ArrayList<>();
+            synchronized (this) {
+                if (search == null) {
+                    search = new SearchIndex();
+                    for (int r = 0; r < rows; r++) search.addPost(postIds.getInt(r), readHeap(contentOff.getLong(r), contentLen.getInt(r)));
+                }
+                for (int pid : search.searchPosts(query, offset, limit)) {
+                    int r = rowsBelow(pid);
+                    if (r < rows && postIds.getInt(r) == pid) page.add(materialize(r));
+                }
+            }
+            base.fillDetails(page);
+            return page;
+        }
+
+        private int rowsBelow(int postId) {
+            int lo = 0, hi = rows;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (postIds.getInt(mid) < postId) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        private PostItem materialize(int r) {
+            String when = LocalDateTime.ofInstant(Instant.ofEpochSecond(createdAt.getLong(r)), ZoneId.systemDefault()).format(TS);
+            return new PostItem(postIds.getInt(r), userIds.getInt(r), "?", readHeap(contentOff.getLong(r), contentLen.getInt(r)), when, 0, 0, readHeap(imageOff.getLong(r), imageLen.getInt(r)));
+        }
+
+        private String readHeap(long off, int len) {
+            if (len == 0) return "";
+            ByteBuffer b = ByteBuffer.allocate(len);
+            try {
+                while (b.hasRemaining() && heap.read(b, off + b.position()) > 0) { /* keep reading */ }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return new String(b.array(), 0, b.position(), StandardCharsets.UTF_8);
+        }
+
+        /** One-shot conversion of posts.csv into the column files in dir; dir must not contain posts yet. Returns rows written. */
+        static int migrate(File postsCsv, File dir) throws IOException {
+            MappedPostStore out = new MappedPostStore(dir);
+            out.openFiles();
+            if (out.rows != 0) throw new IOException(dir + " already holds " + out.rows + " posts");
+            try (BufferedReader br = new BufferedReader(new FileReader(postsCsv))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] a = CSVStore.splitCsv(line);
+                    if (a.length < 4) continue;
+                    long epoch;
+                    try {
+                        epoch = LocalDateTime.parse(a[3], TS).atZone(ZoneId.systemDefault()).toEpochSecond();
+                    } catch (DateTimeParseException e) {
+                        epoch = 0;
+                    }
+                    out.appendRow(Integer.parseInt(a[0]), Integer.parseInt(a[1]), epoch, a[2], a.length >= 5 ? a[4] : "");
+                }
+            }
+            out.force();
+            out.closeFiles();
+            return out.rows;
+        }
+
+        private void closeFiles() throws IOException {
+            for (Column c : columns) c.close();
+            heap.close();
+            headerCh.close();
+        }
+
+        // users, follows, likes, comments and avatars stay in the CSV files
+        @Override public int createUser(String username, String password) { return base.createUser(username, password); }
+        @Override public int getUserId(String username) { return base.getUserId(username); }
+        @Override public boolean validateLogin(String username, String password) { return base.validateLogin(username, password); }
+        @Override public List<String> allUsernames() { return base.allUsernames(); }
+        @Override public List<String> searchUsers(String query, int offset, int limit) { return base.searchUsers(query, offset, limit); }
+        @Override public void follow(int followerId, int followeeId) { base.follow(followerId, followeeId); }
+        @Override public void unfollow(int followerId, int followeeId) { base.unfollow(followerId, followeeId); }
+        @Override public boolean isFollowing(int followerId, int followeeId) { return base.isFollowing(followerId, followeeId); }
+        @Override public List<String> followers(int userId) { return base.followers(userId); }
+        @Override public int followerCount(int userId) { return base.followerCount(userId); }
+        @Override public void frozen(DataExporter.Cut cut) throws IOException { base.frozen(cut); }
+        @Override public void like(int postId, int userId) { base.like(postId, userId); }
+        @Override public void unlike(int postId, int userId) { base.unlike(postId, userId); }
+        @Override public boolean hasLiked(int postId, int userId) { return base.hasLiked(postId, userId); }
+        @Override public void comment(int postId, int userId, String text) { base.comment(postId, userId, text); }
+        @Override public String getAvatarFilename(int userId) { return base.getAvatarFilename(userId); }
+        @Override public void setAvatar(int userId, String filename) { base.setAvatar(userId, filename); }
+        // post events come from here, everything else from the base store
+        @Override public void addListener(Listener l) { events.add(l); base.addListener(l); }
+        @Override public void removeListener(Listener l) { events.remove(l); base.removeListener(l); }
+    }
+
+    // --- Group-commit append log: long-lived channels per CSV file, one writer thread, batched fsync ---
+    static class GroupCommitLog {
+        interface IOAction { void run() throws IOException; }
+
+        private static final class Entry {
+            final File target; final byte[] data; final IOAction action;
+            final CompletableFuture<Long> result = new CompletableFuture<>();
+            Entry(File target, byte[] data, IOAction action) { this.target = target; this.data = data; this.action = action; }
+        }
+
+        private final long syncIntervalNanos;
+        private final int maxBatch;
+        private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+        // channels are opened by open() and afterwards only touched by the writer thread
+        private final Map<File, FileChannel> channels = new ConcurrentHashMap<>();
+        private final Set<FileChannel> unsynced = new HashSet<>();
+        private final Map<Entry, Long> pendingOffsets = new HashMap<>();
+        private static final Entry WAKE = new Entry(null, null, null);
+
+        /** What readers may see of a file: whole lines up to length. An odd generation means a rewrite is in progress. */
+        private static final class View {
+            final long generation, length;
+            View(long generation, long length) { this.generation = generation; this.length = length; }
+        }
+        // replaced, never mutated, by open() and the writer thread
+        private final Map<File, View> views = new ConcurrentHashMap<>();
+        private final Thread writer;
+        private volatile boolean closed;
+        private long lastSync = System.nanoTime();
+
+        /** syncIntervalMillis = 0 forces every batch to disk before any caller in it returns. */
+        GroupCommitLog(long syncIntervalMillis, int maxBatch) {
+            this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+            this.maxBatch = Math.max(1, maxBatch);
+            writer = new Thread(this::runWriter, "group-commit-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        static GroupCommitLog fromSystemProperties() {
+            return new GroupCommitLog(Long.getLong("social.log.syncMillis", 50), Integer.getInteger("social.log.maxBatch", 512));
+        }
+
+        /** Creates the file if needed, truncates a trailing partial line left by a crash, and keeps a channel open on it. */
+        void open(File f) throws IOException {
+            if (!f.exists()) f.createNewFile();
+            FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ);
+            long size = ch.size(), keep = size;
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (keep > 0) {
+                one.clear();
+                ch.read(one, keep - 1);
+                if (one.get(0) == '\n') break;
+                keep--;
+            }
+            if (keep < size) ch.truncate(keep);
+            ch.position(keep);
+            FileChannel old = channels.put(f, ch);
+            if (old != null) old.close();
+            View prev = views.get(f);
+            views.put(f, new View(prev == null ? 0 : (prev.generation | 1) + 1, keep));
+        }
+
+        /** Appends line + newline; blocks until it is written and returns its byte offset, or -1 on failure. */
+        long append(File target, String line) {
+            return appendAsync(target, line).join();
+        }
+
+        /** Queues line + newline and returns at once; the future yields its byte offset, or -1. Lines land in queue order. */
+        CompletableFuture<Long> appendAsync(File target, String line) {
+            // views, unlike channels, keeps a file that is being rewritten; rows queued meanwhile go to the new file
+            if (closed || !views.containsKey(target)) return CompletableFuture.completedFuture(-1L);
+            return enqueue(new Entry(target, (line + "\n").getBytes(Charset.defaultCharset()), null));
+        }
+
+        /** Returns once everything queued before the call has been written (not necessarily forced). */
+        void barrier() {
+            if (!closed) enqueue(new Entry(null, null, null)).join();
+        }
+
+        private CompletableFuture<Long> enqueue(Entry e) {
+            queue.add(e);
+            if (!writer.isAlive()) e.result.complete(-1L);
+            return e.result;
+        }
+
+        /**
+         * A stable read view of f: only lines completely written before the call, and never a file halfway through a
+         * rewrite. The file prefix it covers is immutable, so readers need no lock. Files not opened by this log are read as is.
+         */
+        Snapshot openSnapshot(File f) throws IOException {
+            while (true) {
+                View v = views.get(f);
+                if (v == null) return new Snapshot(new FileInputStream(f), f.length());
+                if ((v.generation & 1) == 1) { LockSupport.parkNanos(1_000_000); continue; }
+                FileInputStream in = new FileInputStream(f);
+                // the generation turns odd before a rewrite touches the file, so an unchanged one means we opened the right file
+                if (views.get(f).generation == v.generation) return new Snapshot(in, v.length);
+                in.close();
+            }
+        }
+
+        /** The first length bytes of a file. */
+        static final class Snapshot extends FilterInputStream {
+            final long length;
+            private long remaining;
+            Snapshot(InputStream in, long length) { super(in); this.length = remaining = length; }
+            @Override public int read() throws IOException {
+                if (remaining <= 0) return -1;
+                int b = super.read();
+                if (b >= 0) remaining--;
+                return b;
+            }
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) return -1;
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) remaining -= n;
+                Metrics.bytesRead(n);
+                return n;
+            }
+            @Override public long skip(long n) throws IOException {
+                long k = super.skip(Math.min(n, remaining));
+                remaining -= k;
+                return k;
+            }
+            @Override public int available() throws IOException { return (int) Math.min(super.available(), remaining); }
+            @Override public boolean markSupported() { return false; }
+        }
+
+        /** Runs action on the writer thread with target's channel closed, e.g. to replace the file, then reopens it. */
+        boolean rewrite(File target, IOAction action) {
+            return rewriteAsync(target, action).join() >= 0;
+        }
+
+        /** Queues a rewrite behind every line queued so far and returns at once; the future yields -1 if it failed. */
+        CompletableFuture<Long> rewriteAsync(File target, IOAction action) {
+            if (closed) return CompletableFuture.completedFuture(-1L);
+            return enqueue(new Entry(target, null, action));
+        }
+
+        /** Flushes everything queued, forces it to disk and stops the writer. */
+        void close() {
+            if (closed) return;
+            closed = true;
+            queue.add(WAKE);
+            try { writer.join(5000); } catch (InterruptedException ignored) { Thread.currentThread().interrupt(); }
+        }
+
+        private void runWriter() {
+            List<Entry> batch = new ArrayList<>(maxBatch);
+            long idleWait = syncIntervalNanos > 0 ? syncIntervalNanos : TimeUnit.MILLISECONDS.toNanos(100);
+            while (true) {
+                Entry first;
+                try {
+                    first = queue.poll(idleWait, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException ie) {
+                    first = null;
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatch - 1);
+                    for (Entry e : batch) {
+                        if (e == WAKE) continue;
+                        if (e.target == null) e.result.complete(0L); // barrier
+                        else if (e.action != null) runExclusive(e);
+                        else write(e);
+                    }
+                    batch.clear();
+                }
+                if (first == null || syncIntervalNanos == 0 || System.nanoTime() - lastSync >= syncIntervalNanos) syncAll();
+                if (closed && queue.isEmpty()) break;
+            }
+            for (FileChannel ch : channels.values()) try { ch.close(); } catch (IOException ignored) {}
+            for (Entry e; (e = queue.poll()) != null; ) e.result.complete(-1L);
+        }
+
+        private void write(Entry e) {
+            FileChannel ch = channels.get(e.target);
+            if (ch == null) { // a failed rewrite could not reopen it
+                e.result.complete(-1L);
+                return;
+            }
+            try {
+                long offset = ch.size();
+                ByteBuffer buf = ByteBuffer.wrap(e.data);
+                while (buf.hasRemaining()) ch.write(buf, offset + buf.position());
+                views.put(e.target, new View(views.get(e.target).generation, offset + e.data.length));
+                unsynced.add(ch);
+                if (syncIntervalNanos == 0) pendingOffsets.put(e, offset); // acknowledged once forced
+                else e.result.complete(offset);                           // visible now, durable at the next sync
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                e.result.complete(-1L);
+            }
+        }
+
+        private void runExclusive(Entry e) {
+            syncAll();
+            View v = views.get(e.target);
+            if (v != null) views.put(e.target, new View(v.generation | 1, v.length)); // readers wait until open() publishes the new file
+            try {
+                FileChannel ch = channels.remove(e.target);
+                if (ch != null) ch.close();
+                e.action.run();
+                e.result.complete(0L);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                e.result.complete(-1L);
+            } finally {
+                try { open(e.target); } catch (IOException ex) { ex.printStackTrace(); }
+            }
+        }
+
+        private void syncAll() {
+            for (FileChannel ch : unsynced) {
+                try { ch.force(false); } catch (IOException ex) { ex.printStackTrace(); }
+            }
+            unsynced.clear();
+            lastSync = System.nanoTime();
+            pendingOffsets.forEach((e, off) -> e.result.complete(off));
+            pendingOffsets.clear();
+        }
+
+        /** Largest leading integer on any line starting at or after byte offset from (0 if none); used to recover id counters. */
+        static int maxLeadingId(File f, long from) throws IOException {
+            if (from > f.length()) from = 0;
+            int max = 0;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+                // start one byte early: a stale offset (e.g. recorded before users.csv was rewritten) may fall mid-line,
+                // and digits there, such as a hash's iteration count, are not an id
+                long start = Math.max(0, from - 1), skipped = 0;
+                while (skipped < start) {
+                    long k = in.skip(start - skipped);
+                    if (k <= 0) break;
+                    skipped += k;
+                }
+                int b, v = 0;
+                boolean leading = from == 0 || in.read() == '\n';
+                while ((b = in.read()) != -1) {
+                    if (b == '\n') { max = Math.max(max, v); v = 0; leading = true; }
+                    else if (leading && b >= '0' && b <= '9') v = v * 10 + (b - '0');
+                    else leading = false;
+                }
+                max = Math.max(max, v);
+            }
+            return max;
+        }
+    }
+
+    // --- Mutable per-user attributes (avatar, ...): an append log read into a last-write-wins map, compacted when mostly stale ---
+    static class UserAttributes {
+        static final String AVATAR = "avatar";
+        private static final int COMPACT_MIN = Integer.getInteger("social.attributes.compactMin", 1024);
+
+        private final File file, legacyUsers;
+        private final GroupCommitLog log;
+        // userId -> key -> value (escaped); guarded by this
+        private final Map<Integer, Map<String, String>> byUser = new HashMap<>();
+        private int rows, live; // lines in the file, and how many of them are still current
+
+        /** Rows are "userId,key,value". legacyUsers is users.csv, whose avatar column seeds a new attributes file. */
+        UserAttributes(File file, File legacyUsers, GroupCommitLog log) {
+            this.file = file; this.legacyUsers = legacyUsers; this.log = log;
+        }
+
+        void load() throws IOException {
+            synchronized (this) {
+                if (!file.exists()) seedFromUsers();
+                log.open(file);
+                try (CsvTokenizer t = new CsvTokenizer(new FileReader(file))) {
+                    while (t.next()) if (t.fields() >= 3) apply(t.intField(0), t.field(1), t.field(2));
+                }
+            }
+            compact(false);
+        }
+
+        // avatars used to live in users.csv's fourth column; copying them once means get() never has to scan it
+        private void seedFromUsers() throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (Writer w = new BufferedWriter(new FileWriter(tmp))) {
+                if (legacyUsers.exists()) {
+                    try (CsvTokenizer t = new CsvTokenizer(new FileReader(legacyUsers))) {
+                        while (t.next()) if (t.fields() >= 4 && t.fieldLength(3) > 0) w.append(t.field(0) + "," + AVATAR + "," + t.field(3) + "\n");
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        synchronized String get(int userId, String key) {
+            return current(userId, key);
+        }
+
+        /** Sets one attribute with a single appended row; an empty value clears it. Waits for the row outside the lock. */
+        boolean put(int userId, String key, String value) {
+            String v = CSVStore.escape(value);
+            String old;
+            CompletableFuture<Long> written;
+            synchronized (this) {
+                // applied and queued under the lock, so the file keeps the same order as the map
+                old = current(userId, key);
+                apply(userId, key, v);
+                written = log.appendAsync(file, userId + "," + key + "," + v);
+            }
+            if (written.join() >= 0) return true;
+            synchronized (this) {
+                // undo only if no later put has replaced the value; neither row reached the file
+                if (v.equals(current(userId, key))) {
+                    apply(userId, key, old == null ? "" : old);
+                    rows -= 2;
+                }
+            }
+            return false;
+        }
+
+        private String current(int userId, String key) {
+            Map<String, String> m = byUser.get(userId);
+            return m == null ? null : m.get(key);
+        }
+
+        private void apply(int userId, String key, String value) {
+            rows++;
+            Map<String, String> m = byUser.computeIfAbsent(userId, k -> new HashMap<>());
+            String old = value.isEmpty() ? m.remove(key) : m.put(key, value);
+            if (old == null && !value.isEmpty()) live++;
+            if (old != null && value.isEmpty()) live--;
+            if (m.isEmpty()) byUser.remove(userId);
+        }
+
+        /**
+         * Rewrites the file with only current values once stale rows outnumber them (or always, if forced). Runs on the
+         * store's compactor thread: the lock is held only to copy the map and queue the rewrite behind the rows it covers.
+         */
+        void compact(boolean force) {
+            TreeMap<Integer, Map<String, String>> copy = new TreeMap<>();
+            int coveredRows, coveredLive;
+            CompletableFuture<Long> done;
+            synchronized (this) {
+                if (rows == live || !force && (rows < COMPACT_MIN || rows <= 2 * live)) return;
+                for (Map.Entry<Integer, Map<String, String>> u : byUser.entrySet()) copy.put(u.getKey(), new HashMap<>(u.getValue()));
+                coveredRows = rows; coveredLive = live;
+                done = log.rewriteAsync(file, () -> {
+                    File tmp = new File(file.getPath() + ".tmp");
+                    try (Writer w = new BufferedWriter(new FileWriter(tmp))) {
+                        for (Map.Entry<Integer, Map<String, String>> u : copy.entrySet())
+                            for (Map.Entry<String, String> kv : u.getValue().entrySet()) w.append(u.getKey() + "," + kv.getKey() + "," + kv.getValue() + "\n");
+                    }
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                });
+            }
+            if (done.join() < 0) return;
+            // rows queued after the copy stay in the file as its tail
+            synchronized (this) { rows -= coveredRows - coveredLive; }
+        }
+    }
+
+    // --- Background log compaction: a deduplicated, sorted prefix swapped in under the log; rows appended meanwhile become the tail ---
+    static class LogCompactor {
+        enum Kind { FOLLOWS, LIKES, COMMENTS }
+
+        /** What one compaction did. */
+        static final class Result {
+            final long bytesBefore, bytesAfter, millis;
+            Result(long bytesBefore, long bytesAfter, long millis) { this.bytesBefore = bytesBefore; this.bytesAfter = bytesAfter; this.millis = millis; }
+        }
+
+        private static final long INTERVAL_MILLIS = Long.getLong("social.compact.intervalMillis", 300_000);
+        private static final long MIN_BYTES = Long.getLong("social.compact.minBytes", 1 << 20);
+        private static final double GROWTH = Double.parseDouble(System.getProperty("social.compact.growth", "2.0"));
+
+        /** Compaction counters: one set per compactor, and one over every compactor in the process. */
+        static final class Stats implements CompactionMXBean {
+            private final AtomicLong compactions = new AtomicLong(), bytesReclaimed = new AtomicLong(), totalMillis = new AtomicLong();
+            private volatile long lastMillis;
+
+            void add(long reclaimed, long millis) {
+                compactions.incrementAndGet();
+                bytesReclaimed.addAndGet(reclaimed);
+                totalMillis.addAndGet(millis);
+                lastMillis = millis;
+            }
+
+            @Override public long getCompactions() { return compactions.get(); }
+            @Override public long getBytesReclaimed() { return bytesReclaimed.get(); }
+            @Override public long getTotalMillis() { return totalMillis.get(); }
+            @Override public long getLastMillis() { return lastMillis; }
+        }
+
+        static final Stats ALL = Metrics.register("social:type=Compaction", new Stats());
+        // each compaction's duration, with the bytes of log it read, alongside the store operations
+        private static final Metrics.Op COMPACT = Metrics.op("log.compact");
+
+        private final GroupCommitLog log;
+        private final Map<File, Long> sizeAfterLast = new ConcurrentHashMap<>();
+        private ScheduledExecutorService timer;
+        private final Stats stats = new Stats();
+
+        LogCompactor(GroupCommitLog log) { this.log = log; }
+
+        /** Runs pass every social.compact.intervalMillis on a daemon thread, off the request path; 0 disables it. */
+        synchronized void start(Runnable pass) {
+            if (timer != null || INTERVAL_MILLIS <= 0) return;
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "log-compactor");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+            timer.scheduleWithFixedDelay(() -> {
+                try { pass.run(); } catch (RuntimeException e) { e.printStackTrace(); }
+            }, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void stop() {
+            if (timer != null) timer.shutdownNow();
+            timer = null;
+        }
+
+        /** Worth compacting: at least social.compact.minBytes and social.compact.growth times its size after the last compaction. */
+        boolean due(File f) {
+            long size = f.length();
+            return size >= MIN_BYTES && size >= GROWTH * sizeAfterLast.getOrDefault(f, 0L);
+        }
+
+        long compactions() { return stats.getCompactions(); }
+        long bytesReclaimed() { return stats.getBytesReclaimed(); }
+        long totalMillis() { return stats.getTotalMillis(); }
+        long lastMillis() { return stats.getLastMillis(); }
+
+        /**
+         * Compacts one log. The sorted, deduplicated prefix is built from a snapshot while appends continue; the log writer then
+         * copies whatever was appended since onto it and swaps the file in, after running beforeSwap. Returns null on failure.
+         */
+        Result compact(File file, Kind kind, GroupCommitLog.IOAction beforeSwap) {
+            long t0 = System.nanoTime();
+            File tmp = new File(file.getPath() + ".compact");
+            long prefix;
+            try (GroupCommitLog.Snapshot in = log.openSnapshot(file);
+                 CsvTokenizer t = new CsvTokenizer(new InputStreamReader(in));
+                 Writer w = new BufferedWriter(new FileWriter(tmp))) {
+                prefix = in.length;
+                if (kind == Kind.COMMENTS) writeComments(t, w); else writePairs(t, w, kind == Kind.FOLLOWS ? SocialGraph.UNFOLLOW : PostLikes.UNLIKE);
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+                tmp.delete();
+                COMPACT.record(t0, false);
+                return null;
+            }
+            long[] before = new long[1];
+            boolean ok = log.rewrite(file, () -> {
+                before[0] = file.length();
+                try (FileChannel src = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                     FileChannel dst = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    for (long pos = prefix, end = src.size(); pos < end; ) pos += src.transferTo(pos, end - pos, dst);
+                    dst.force(false);
+                }
+                if (beforeSwap != null) beforeSwap.run();
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            });
+            if (!ok) {
+                tmp.delete();
+                COMPACT.record(t0, false);
+                return null;
+            }
+            long after = file.length(), ms = (System.nanoTime() - t0) / 1_000_000;
+            sizeAfterLast.put(file, after);
+            stats.add(Math.max(0, before[0] - after), ms);
+            ALL.add(Math.max(0, before[0] - after), ms);
+            COMPACT.record(t0);
+            COMPACT.read(prefix);
+            return new Result(before[0], after, ms);
+        }
+
+        // follows.csv and likes.csv: replay adds and removals, then write the surviving pairs in order
+        private static void writePairs(CsvTokenizer t, Writer w, String removal) throws IOException {
+            LongSet live = new LongSet();
+            while (t.next()) {
+                if (t.fields() < 2) continue;
+                long pair = (long) t.intField(0) << 32 | (t.intField(1) & 0xFFFFFFFFL);
+                if (t.fields() >= 3 && t.fieldEquals(2, removal)) live.remove(pair); else live.add(pair);
+            }
+            long[] pairs = live.toArray();
+            Arrays.sort(pairs);
+            for (long p : pairs) w.append(String.valueOf(p >> 32)).append(',').append(String.valueOf((int) p)).append('\n');
+        }
+
+        private static final class CommentRow {
+            final int postId; final long commentId; final String line;
+            CommentRow(int postId, long commentId, String line) { this.postId = postId; this.commentId = commentId; this.line = line; }
+        }
+
+        // comments.csv: every comment is its own event, even a verbatim repeat, so only rows no reader counts are dropped;
+        // the rest is grouped by post, oldest first
+        private static void writeComments(CsvTokenizer t, Writer w) throws IOException {
+            List<CommentRow> rows = new ArrayList<>();
+            while (t.next()) {
+                if (t.fields() < 3) continue;
+                StringWriter line = new StringWriter();
+                t.writeLine(line);
+                rows.add(new CommentRow(t.intField(1), t.longField(0), line.toString()));
+            }
+            rows.sort(Comparator.<CommentRow>comparingInt(r -> r.postId).thenComparingLong(r -> r.commentId));
+            for (CommentRow r : rows) w.append(r.line).append('\n');
+        }
+    }
+
+    // --- Admin export: logs cut into line-aligned segments, processed by fork/join, each segment streamed to its own part file ---
+    static class DataExporter {
+        enum Format {
+            CSV("csv"), JSONL("jsonl");
+            final String extension;
+            Format(String extension) { this.extension = extension; }
+        }
+
+        /** Bytes read so far out of every byte the export will read; called from worker threads. */
+        interface Progress { void update(long done, long total); }
+
+        /** Reads the live like sets and graph; may also read the logs, which line up with them while it runs. */
+        interface Cut { void run(PostLikes likes, SocialGraph graph) throws IOException; }
+
+        /** A store that holds every like and follow in memory, so the export counts those instead of replaying the logs. */
+        interface Engagement {
+            /** Runs cut while no like or follow can change, once every row the sets reflect is in the files. */
+            void frozen(Cut cut) throws IOException;
+        }
+
+        private enum Kind { USERS, POSTS, FOLLOWS, COMMENTS }
+
+        private static final long SEGMENT_BYTES = Long.getLong("social.export.segmentBytes", 8 << 20);
+        private static final String[] USER_COLUMNS = { "id", "username", "avatar", "posts", "followers", "following", "likes_received", "comments_received" };
+        private static final String[] POST_COLUMNS = { "id", "user_id", "created_at", "content", "image", "likes", "comments" };
+        private static final String[] FOLLOW_COLUMNS = { "follower_id", "followee_id", "action" };
+
+        private final File dataDir;
+        private final DataStore store; // avatars, and the like and follow sets; everything else is read from the logs
+        private final AtomicLong bytesRead = new AtomicLong();
+        private volatile boolean cancelled;
+        private long bytesTotal;
+        private Progress progress;
+        private Totals totals;
+
+        DataExporter(File dataDir, DataStore store) { this.dataDir = dataDir; this.store = store; }
+
+        /** Stops a running export at its next read; export() then throws and leaves no output behind. */
+        void cancel() { cancelled = true; }
+
+        /**
+         * Writes users, posts and the follow log into outDir, one file each, and returns the rows written.
+         * Rows appended while this runs are left out. Like and follow counts come from the sets the store already holds,
+         * read at the point where follows.csv is cut; likes and follows wait for that one in-memory pass. Beyond those
+         * sets, memory use is a few int arrays indexed by id, whatever the log sizes.
+         */
+        long export(File outDir, Format format, Progress progress) throws IOException {
+            if (!(store instanceof Engagement)) throw new IOException(store.getClass().getSimpleName() + " cannot be exported");
+            this.progress = progress;
+            outDir.mkdirs();
+            Map<Kind, Input> inputs = new EnumMap<>(Kind.class);
+            try {
+                // opened once: a compaction swaps in a new file but these channels keep reading the old one
+                for (Kind k : Arrays.asList(Kind.USERS, Kind.POSTS, Kind.COMMENTS)) inputs.put(k, input(k));
+                // the sets rather than the rows: older logs repeat likes and follows, which only the sets collapse
+                Totals engagement = new Totals();
+                ((Engagement) store).frozen((likes, graph) -> {
+                    inputs.put(Kind.FOLLOWS, input(Kind.FOLLOWS));
+                    engagement.engagement(likes, graph);
+                });
+                List<Segment> counting = segments(inputs, Kind.POSTS, Kind.COMMENTS);
+                List<Segment> writing = segments(inputs, Kind.USERS, Kind.POSTS, Kind.FOLLOWS);
+                for (List<Segment> l : Arrays.asList(counting, writing)) for (Segment s : l) bytesTotal += s.length();
+
+                // pass 1: post and comment counts, which the rows of pass 2 carry along with the like and follow counts
+                totals = engagement.merge(ForkJoinPool.commonPool().invoke(new Count(counting, 0, counting.size())));
+                totals.finish();
+                // pass 2: every segment becomes a part file, then each output is its parts in log order
+                long rows = ForkJoinPool.commonPool().invoke(new Write(writing, 0, writing.size(), outDir, format));
+                join(outDir, format, Kind.USERS, USER_COLUMNS, writing);
+                join(outDir, format, Kind.POSTS, POST_COLUMNS, writing);
+                join(outDir, format, Kind.FOLLOWS, FOLLOW_COLUMNS, writing);
+                return rows;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                for (Input in : inputs.values()) in.close();
+                File[] parts = outDir.listFiles((d, name) -> name.endsWith(".part"));
+                if (parts != null) for (File f : parts) f.delete();
+            }
+        }
+
+        private Input input(Kind k) throws IOException {
+            return new Input(new File(dataDir, k.name().toLowerCase(Locale.ROOT) + ".csv"));
+        }
+
+        private static List<Segment> segments(Map<Kind, Input> inputs, Kind... kinds) {
+            List<Segment> list = new ArrayList<>();
+            for (Kind k : kinds) {
+                Input in = inputs.get(k);
+                for (int i = 0; i + 1 < in.bounds.length; i++) list.add(new Segment(k, in, i));
+            }
+            return list;
+        }
+
+        private void join(File outDir, Format format, Kind kind, String[] columns, List<Segment> writing) throws IOException {
+            File target = new File(outDir, kind.name().toLowerCase(Locale.ROOT) + "." + format.extension);
+            try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (format == Format.CSV) out.write(ByteBuffer.wrap((String.join(",", columns) + "\n").getBytes(StandardCharsets.UTF_8)));
+                for (Segment s : writing) {
+                    if (s.kind != kind) continue;
+                    try (FileChannel part = FileChannel.open(s.partFile(outDir).toPath(), StandardOpenOption.READ)) {
+                        for (long pos = 0, size = part.size(); pos < size; ) pos += part.transferTo(pos, size - pos, out);
+                    }
+                }
+            }
+        }
+
+        /** One log, fixed at its last complete line when the export starts, with its segment boundaries. */
+        private static final class Input implements Closeable {
+            final FileChannel ch;
+            final long[] bounds; // segment i is [bounds[i], bounds[i + 1]); every boundary is the start of a line
+
+            Input(File f) throws IOException {
+                if (!f.exists()) { ch = null; bounds = new long[] { 0 }; return; }
+                ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+                long end = lineStartAtOrBefore(ch.size());
+                List<Long> b = new ArrayList<>();
+                b.add(0L);
+                for (long at = 0; at < end; ) {
+                    at = at + SEGMENT_BYTES >= end ? end : lineStartAfter(at + SEGMENT_BYTES, end);
+                    b.add(at);
+                }
+                bounds = b.stream().mapToLong(Long::longValue).toArray();
+            }
+
+            // a row still being appended has no newline yet and is left out
+            private long lineStartAtOrBefore(long pos) throws IOException {
+                ByteBuffer buf = ByteBuffer.allocate(4096);
+                while (pos > 0) {
+                    long from = Math.max(0, pos - buf.capacity());
+                    buf.clear().limit((int) (pos - from));
+                    while (buf.hasRemaining() && ch.read(buf, from + buf.position()) >= 0) { }
+                    for (int i = buf.position() - 1; i >= 0; i--) if (buf.get(i) == '\n') return from + i + 1;
+                    pos = from;
+                }
+                return 0;
+            }
+
+            private long lineStartAfter(long pos, long end) throws IOException {
+                ByteBuffer buf = ByteBuffer.allocate(4096);
+                for (long at = pos - 1; at < end; at += buf.position()) {
+                    buf.clear().limit((int) Math.min(buf.capacity(), end - at));
+                    if (ch.read(buf, at) < 0) break;
+                    for (int i = 0; i < buf.position(); i++) if (buf.get(i) == '\n') return at + i + 1;
+                }
+                return end;
+            }
+
+            @Override public void close() throws IOException { if (ch != null) ch.close(); }
+        }
+
+        private static final class Segment {
+            final Kind kind; final Input in; final int index;
+            Segment(Kind kind, Input in, int index) { this.kind = kind; this.in = in; this.index = index; }
+            long length() { return in.bounds[index + 1] - in.bounds[index]; }
+            File partFile(File outDir) { return new File(outDir, "." + kind.name().toLowerCase(Locale.ROOT) + "-" + index + ".part"); }
+        }
+
+        /** Tokenizer over one segment; reading it advances the export's progress. */
+        private CsvTokenizer open(Segment s) {
+            InputStream range = new InputStream() {
+                private long pos = s.in.bounds[s.index];
+                private final long end = s.in.bounds[s.index + 1];
+
+                @Override public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override public int read(byte[] b, int off, int len) throws IOException {
+                    if (cancelled) throw new InterruptedIOException("export cancelled");
+                    if (pos >= end) return -1;
+                    int n = s.in.ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+                    if (n < 0) return -1;
+                    pos += n;
+                    progress.update(bytesRead.addAndGet(n), bytesTotal);
+                    return n;
+                }
+            };
+            // same charset the stores write with
+            return new CsvTokenizer(new InputStreamReader(range));
+        }
+
+        /** Engagement counts indexed by post or user id; each array only grows as far as the largest id seen. */
+        private static final class Totals {
+            int[] postAuthor = new int[0], likes = new int[0], comments = new int[0];
+            int[] posts = new int[0], followers = new int[0], following = new int[0];
+            int[] likesReceived = new int[0], commentsReceived = new int[0];
+
+            Totals merge(Totals o) {
+                postAuthor = sum(postAuthor, o.postAuthor); comments = sum(comments, o.comments); posts = sum(posts, o.posts);
+                return this;
+            }
+
+            /** Copies like and follow counts out of the store's sets; only their sizes, never the sets themselves. */
+            void engagement(PostLikes likeSets, SocialGraph graph) {
+                for (int post : likeSets.postIds()) likes = add(likes, post, likeSets.count(post));
+                for (int user : graph.users()) {
+                    followers = add(followers, user, graph.followerCount(user));
+                    following = add(following, user, graph.followees(user).length);
+                }
+            }
+
+            /** Credits likes and comments to post authors, once every count is in. */
+            void finish() {
+                for (int post = 0; post < postAuthor.length; post++) {
+                    likesReceived = add(likesReceived, postAuthor[post], get(likes, post));
+                    commentsReceived = add(commentsReceived, postAuthor[post], get(comments, post));
+                }
+            }
+
+            static int[] add(int[] a, int i, int d) {
+                if (i < 0 || d == 0) return a;
+                if (i >= a.length) a = Arrays.copyOf(a, Math.max(i + 1, a.length * 2));
+                a[i] += d;
+                return a;
+            }
+
+            static int[] sum(int[] a, int[] b) {
+                if (a.length < b.length) { int[] t = a; a = b; b = t; }
+                for (int i = 0; i < b.length; i++) a[i] += b[i];
+                return a;
+            }
+
+            static int get(int[] a, int i) { return i >= 0 && i < a.length ? a[i] : 0; }
+        }
+
+        private final class Count extends RecursiveTask<Totals> {
+            private static final long serialVersionUID = 1L; // never serialized; ForkJoinTask is Serializable
+            private final List<Segment> segments; private final int lo, hi;
+            Count(List<Segment> segments, int lo, int hi) { this.segments = segments; this.lo = lo; this.hi = hi; }
+
+            @Override protected Totals compute() {
+                if (hi - lo > 1) {
+                    int mid = (lo + hi) >>> 1;
+                    Count right = new Count(segments, mid, hi);
+                    right.fork();
+                    Totals left = new Count(segments, lo, mid).compute();
+                    return left.merge(right.join());
+                }
+                Totals t = new Totals();
+                if (lo == hi) return t;
+                Segment s = segments.get(lo);
+                try (CsvTokenizer row = open(s)) {
+                    while (row.next()) {
+                        try {
+                            count(s.kind, row, t);
+                        } catch (NumberFormatException e) {
+                            // a damaged row; the stores skip these too
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return t;
+            }
+        }
+
+        private static void count(Kind kind, CsvTokenizer row, Totals t) {
+            switch (kind) {
+                case POSTS:
+                    if (row.fields() < 4) return;
+                    t.postAuthor = Totals.add(t.postAuthor, row.intField(0), row.intField(1));
+                    t.posts = Totals.add(t.posts, row.intField(1), 1);
+                    return;
+                case COMMENTS:
+                    if (row.fields() < 3) return;
+                    t.comments = Totals.add(t.comments, row.intField(1), 1);
+                    return;
+                default:
+            }
+        }
+
+        private final class Write extends RecursiveTask<Long> {
+            private static final long serialVersionUID = 1L;
+            private final List<Segment> segments; private final int lo, hi; private final File outDir; private final Format format;
+            Write(List<Segment> segments, int lo, int hi, File outDir, Format format) { this.segments = segments; this.lo = lo; this.hi = hi; this.outDir = outDir; this.format = format; }
+
+            @Override protected Long compute() {
+                if (hi - lo > 1) {
+                    int mid = (lo + hi) >>> 1;
+                    Write right = new Write(segments, mid, hi, outDir, format);
+                    right.fork();
+                    return new Write(segments, lo, mid, outDir, format).compute() + right.join();
+                }
+                if (lo == hi) return 0L;
+                Segment s = segments.get(lo);
+                long rows = 0;
+                try (CsvTokenizer row = open(s);
+                     Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(s.partFile(outDir)), StandardCharsets.UTF_8), 1 << 16)) {
+                    RowWriter out = new RowWriter(w, format, s.kind == Kind.USERS ? USER_COLUMNS : s.kind == Kind.POSTS ? POST_COLUMNS : FOLLOW_COLUMNS);
+                    while (row.next()) {
+                        try {
+                            if (write(s.kind, row, out)) rows++;
+                        } catch (NumberFormatException e) {
+                            // skipped, as in pass 1
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return rows;
+            }
+        }
+
+        private boolean write(Kind kind, CsvTokenizer row, RowWriter out) throws IOException {
+            switch (kind) {
+                case USERS: {
+                    if (row.fields() < 2) return false;
+                    int id = row.intField(0);
+                    String avatar = store.getAvatarFilename(id);
+                    out.num(id).str(row.field(1)).str(avatar == null ? "" : avatar)
+                       .num(Totals.get(totals.posts, id)).num(Totals.get(totals.followers, id)).num(Totals.get(totals.following, id))
+                       .num(Totals.get(totals.likesReceived, id)).num(Totals.get(totals.commentsReceived, id)).end();
+                    return true;
+                }
+                case POSTS: {
+                    if (row.fields() < 4) return false;
+                    int id = row.intField(0);
+                    out.num(id).num(row.intField(1)).str(row.field(3)).str(unescape(row.field(2))).str(row.fields() >= 5 ? unescape(row.field(4)) : "")
+                       .num(Totals.get(totals.likes, id)).num(Totals.get(totals.comments, id)).end();
+                    return true;
+                }
+                case FOLLOWS: {
+                    if (row.fields() < 2) return false;
+                    boolean unfollow = row.fields() >= 3 && row.fieldEquals(2, SocialGraph.UNFOLLOW);
+                    out.num(row.intField(0)).num(row.intField(1)).str(unfollow ? "unfollow" : "follow").end();
+                    return true;
+                }
+                default:
+                    return false;
+            }
+        }
+
+        private static String unescape(String s) { return s.replace(CsvTokenizer.ESCAPED_COMMA, ','); }
+
+        /** Builds one output row in a reused buffer: RFC 4180 quoting for CSV, one object per line for JSON lines. */
+        private static final class RowWriter {
+            private final Writer w; private final Format format; private final String[] columns;
+            private final StringBuilder line = new StringBuilder(256);
+            private int column;
+
+            RowWriter(Writer w, Format format, String[] columns) { this.w = w; this.format = format; this.columns = columns; }
+
+            RowWriter num(long v) { next(); line.append(v); return this; }
+
+            RowWriter str(String v) {
+                next();
+                if (format == Format.JSONL) json(v);
+                else if (v.indexOf(',') >= 0 || v.indexOf('"') >= 0 || v.indexOf('\n') >= 0 || v.indexOf('\r') >= 0) line.append('"').append(v.replace("\"", "\"\"")).append('"');
+                else line.append(v);
+                return this;
+            }
+
+            void end() throws IOException {
+                if (format == Format.JSONL) line.append('}');
+                line.append('\n');
+                w.append(line);
+                line.setLength(0);
+                column = 0;
+            }
+
+            private void next() {
+                if (column > 0) line.append(',');
+                else if (format == Format.JSONL) line.append('{');
+                if (format == Format.JSONL) { json(columns[column]); line.append(':'); }
+                column++;
+            }
+
+            private void json(String s) {
+                line.append('"');
+                for (int i = 0; i < s.length(); i++) {
+                    char c = s.charAt(i);
+                    if (c == '"' || c == '\\') line.append('\\').append(c);
+                    else if (c < 0x20) line.append(String.format("\\u%04x", (int) c));
+                    else line.append(c);
+                }
+                line.append('"');
+            }
+        }
+    }
+
+    // --- Follow graph: CSR int[] adjacency in both directions, small per-user deltas folded in by a background compaction ---
+    static class SocialGraph {
+        /** Third column of a follows.csv row that removes the edge instead of adding it. */
+        static final String UNFOLLOW = "unfollow";
+
+        /** Compressed sparse rows: row r's neighbours are edges[start[r] .. start[r + 1]), ascending. Never mutated once built. */
+        static final class Csr {
+            static final Csr EMPTY = new Csr(new int[1], new int[0]);
+            final int[] start, edges;
+            Csr(int[] start, int[] edges) { this.start = start; this.edges = edges; }
+
+            int rows() { return start.length - 1; }
+            int degree(int r) { return r < 0 || r >= rows() ? 0 : start[r + 1] - start[r]; }
+            boolean contains(int r, int v) { return degree(r) > 0 && Arrays.binarySearch(edges, start[r], start[r + 1], v) >= 0; }
+        }
+
+        private final int compactEvery;
+        private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "graph-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        // callers that must keep the write-ahead log in graph order lock the follower's stripe around both
+        private final Object[] stripes = new Object[64];
+        private final Object compactLock = new Object();
+
+        // guarded by this
+        private Csr out = Csr.EMPTY, in = Csr.EMPTY;
+        private final Map<Integer, IntSet> addedOut = new HashMap<>(), removedOut = new HashMap<>();
+        private final Map<Integer, IntSet> addedIn = new HashMap<>(), removedIn = new HashMap<>();
+        private IntList journal = new IntList(); // changes since the last compaction: follower, followee, 1 = follow / 0 = unfollow
+        private int edgeCount;
+        private boolean compacting;
+
+        SocialGraph() { this(Integer.getInteger("social.graph.compactEvery", 4096)); }
+
+        SocialGraph(int compactEvery) {
+            this.compactEvery = Math.max(1, compactEvery);
+            for (int i = 0; i < stripes.length; i++) stripes[i] = new Object();
+        }
+
+        Object stripe(int followerId) { return stripes[followerId & (stripes.length - 1)]; }
+
+        /** Runs body holding every follower stripe, so no store can follow, unfollow or queue either meanwhile. */
+        void frozen(GroupCommitLog.IOAction body) throws IOException { frozen(0, body); }
+
+        private void frozen(int i, GroupCommitLog.IOAction body) throws IOException {
+            if (i == stripes.length) body.run();
+            else synchronized (stripes[i]) { frozen(i + 1, body); }
+        }
+
+        /** Adds the edge; false if it already exists or is a self-follow. */
+        synchronized boolean follow(int followerId, int followeeId) {
+            if (followerId == followeeId || isFollowing(followerId, followeeId)) return false;
+            apply(followerId, followeeId, true);
+            return true;
+        }
+
+        /** Removes the edge; false if it does not exist. */
+        synchronized boolean unfollow(int followerId, int followeeId) {
+            if (!isFollowing(followerId, followeeId)) return false;
+            apply(followerId, followeeId, false);
+            return true;
+        }
+
+        synchronized boolean isFollowing(int followerId, int followeeId) {
+            IntSet added = addedOut.get(followerId);
+            if (added != null && added.contains(followeeId)) return true;
+            IntSet removed = removedOut.get(followerId);
+            return out.contains(followerId, followeeId) && (removed == null || !removed.contains(followeeId));
+        }
+
+        /** Ids the user follows, ascending. */
+        synchronized int[] followees(int userId) { return row(out, addedOut, removedOut, userId); }
+
+        /** Ids following the user, ascending. */
+        synchronized int[] followers(int userId) { return row(in, addedIn, removedIn, userId); }
+
+        synchronized int followerCount(int userId) { return degree(in, addedIn, removedIn, userId); }
+
+        synchronized int edgeCount() { return edgeCount; }
+
+        /** Ids with at least one edge in either direction, ascending. */
+        synchronized int[] users() {
+            IntSet ids = new IntSet();
+            for (Csr g : new Csr[] { out, in })
+                for (int r = 0; r < g.rows(); r++) if (g.degree(r) > 0) ids.add(r);
+            for (Map<Integer, IntSet> m : Arrays.asList(addedOut, addedIn)) for (int r : m.keySet()) ids.add(r);
+            int[] a = ids.toArray();
+            Arrays.sort(a);
+            return a;
+        }
+
+        private static int[] row(Csr base, Map<Integer, IntSet> added, Map<Integer, IntSet> removed, int r) {
+            IntSet add = added.get(r), rem = removed.get(r);
+            int[] out = new int[degree(base, added, removed, r)];
+            int n = 0;
+            if (base.degree(r) > 0)
+                for (int i = base.start[r]; i < base.start[r + 1]; i++)
+                    if (rem == null || !rem.contains(base.edges[i])) out[n++] = base.edges[i];
+            if (add != null) {
+                for (int v : add.toArray()) out[n++] = v;
+                Arrays.sort(out);
+            }
+            return out;
+        }
+
+        private static int degree(Csr base, Map<Integer, IntSet> added, Map<Integer, IntSet> removed, int r) {
+            IntSet add = added.get(r), rem = removed.get(r);
+            return base.degree(r) + (add == null ? 0 : add.size()) - (rem == null ? 0 : rem.size());
+        }
+
+        private void apply(int followerId, int followeeId, boolean follow) {
+            flip(addedOut, removedOut, followerId, followeeId, follow);
+            flip(addedIn, removedIn, followeeId, followerId, follow);
+            edgeCount += follow ? 1 : -1;
+            journal.add(followerId); journal.add(followeeId); journal.add(follow ? 1 : 0);
+            if (!compacting && journal.size() / 3 >= Math.max(compactEvery, edgeCount >> 3)) {
+                compacting = true;
+                compactor.execute(this::compact);
+            }
+        }
+
+        // a change either cancels the opposite pending change for the same edge or is recorded as a new one
+        private static void flip(Map<Integer, IntSet> added, Map<Integer, IntSet> removed, int r, int v, boolean add) {
+            Map<Integer, IntSet> undo = add ? removed : added, record = add ? added : removed;
+            IntSet s = undo.get(r);
+            if (s != null && s.remove(v)) {
+                if (s.isEmpty()) undo.remove(r);
+                return;
+            }
+            record.computeIfAbsent(r, k -> new IntSet(4)).add(v);
+        }
+
+        /** Folds the deltas into new CSR arrays. Built outside the lock; changes made meanwhile are replayed onto the result. */
+        void compact() {
+            synchronized (compactLock) {
+                Csr base;
+                long[] adds, removes;
+                int cutoff;
+                synchronized (this) {
+                    compacting = true;
+                    base = out;
+                    adds = pairs(addedOut);
+                    removes = pairs(removedOut);
+                    cutoff = journal.size();
+                }
+                Csr nextOut = merge(base, adds, removes);
+                Csr nextIn = transpose(nextOut);
+                synchronized (this) {
+                    out = nextOut;
+                    in = nextIn;
+                    addedOut.clear(); removedOut.clear(); addedIn.clear(); removedIn.clear();
+                    IntList tail = journal;
+                    journal = new IntList();
+                    int edges = edgeCount;
+                    compacting = false;
+                    for (int i = cutoff; i < tail.size(); i += 3) apply(tail.get(i), tail.get(i + 1), tail.get(i + 2) == 1);
+                    edgeCount = edges;
+                }
+            }
+        }
+
+        // (row << 32 | column), ascending; ids are non-negative so this sorts by row, then column
+        private static long[] pairs(Map<Integer, IntSet> delta) {
+            int n = 0;
+            for (IntSet s : delta.values()) n += s.size();
+            long[] out = new long[n];
+            int i = 0;
+            for (Map.Entry<Integer, IntSet> e : delta.entrySet())
+                for (int v : e.getValue().toArray()) out[i++] = (long) e.getKey() << 32 | v;
+            Arrays.sort(out);
+            return out;
+        }
+
+        private static Csr merge(Csr base, long[] adds, long[] removes) {
+            int rows = base.rows();
+            if (adds.length > 0) rows = Math.max(rows, (int) (adds[adds.length - 1] >>> 32) + 1);
+            int[] start = new int[rows + 1];
+            IntList edges = new IntList(Math.max(16, base.edges.length + adds.length - removes.length));
+            int ai = 0, ri = 0;
+            for (int r = 0; r < rows; r++) {
+                start[r] = edges.size();
+                int i = r < base.rows() ? base.start[r] : 0, end = r < base.rows() ? base.start[r + 1] : 0;
+                // base and adds are disjoint: an add of a base edge only ever cancels its removal
+                while (i < end || (ai < adds.length && (int) (adds[ai] >>> 32) == r)) {
+                    boolean takeAdd = i == end || (ai < adds.length && (int) (adds[ai] >>> 32) == r && (int) adds[ai] < base.edges[i]);
+                    if (takeAdd) { edges.add((int) adds[ai++]); continue; }
+                    long key = (long) r << 32 | base.edges[i];
+                    while (ri < removes.length && removes[ri] < key) ri++;
+                    if (ri < removes.length && removes[ri] == key) ri++; else edges.add(base.edges[i]);
+                    i++;
+                }
+            }
+            start[rows] = edges.size();
+            return new Csr(start, edges.toArray());
+        }
+
+        private static Csr transpose(Csr g) {
+            int rows = g.rows();
+            for (int v : g.edges) rows = Math.max(rows, v + 1);
+            int[] start = new int[rows + 1];
+            for (int v : g.edges) start[v + 1]++;
+            for (int r = 0; r < rows; r++) start[r + 1] += start[r];
+            int[] fill = Arrays.copyOf(start, rows);
+            int[] edges = new int[g.edges.length];
+            // sources are visited in ascending order, so every transposed row comes out sorted
+            for (int r = 0; r < g.rows(); r++)
+                for (int i = g.start[r]; i < g.start[r + 1]; i++) edges[fill[g.edges[i]]++] = r;
+            return new Csr(start, edges);
+        }
+
+        /** Loads follows.csv: "follower,followee" adds an edge, a third column of "unfollow" removes it. */
+        void load(File followsFile) throws IOException {
+            try (CsvTokenizer t = new CsvTokenizer(new FileReader(followsFile))) {
+                while (t.next()) {
+                    if (t.fields() < 2) continue;
+                    if (t.fields() >= 3 && t.fieldEquals(2, UNFOLLOW)) unfollow(t.intField(0), t.intField(1));
+                    else follow(t.intField(0), t.intField(1));
+                }
+            }
+            compact();
+        }
+    }
+
+    // --- Search: inverted index over post words and #hashtags, n-gram index over usernames; both grow incrementally ---
+    static class SearchIndex {
+        private static final int MAX_GRAM = 3;
+
+        // posts: token -> ascending post ids (posts are indexed in id order)
+        private final Map<String, IntList> postings = new HashMap<>();
+        private int postCount;
+        // users: every 1..3-char substring of a lowercased name -> ascending slots into names
+        private final List<String> names = new ArrayList<>();
+        private final List<String> lowerNames = new ArrayList<>();
+        private final Map<String, IntList> grams = new HashMap<>();
+
+        /** Lowercased distinct words of the text; "#tag" yields both "#tag" and "tag". Stored text escapes commas as '¬', which splits too. */
+        static Set<String> tokens(String text) {
+            Set<String> out = new LinkedHashSet<>();
+            if (text == null) return out;
+            int n = text.length();
+            for (int i = 0; i < n; ) {
+                char c = text.charAt(i);
+                boolean tag = c == '#' && i + 1 < n && isWordChar(text.charAt(i + 1));
+                if (!tag && !isWordChar(c)) { i++; continue; }
+                int start = tag ? i + 1 : i, end = start;
+                while (end < n && isWordChar(text.charAt(end))) end++;
+                String word = text.substring(start, end).toLowerCase(Locale.ROOT);
+                out.add(word);
+                if (tag) out.add("#" + word);
+                i = end;
+            }
+            return out;
+        }
+
+        private static boolean isWordChar(char c) { return Character.isLetterOrDigit(c) || c == '_'; }
+
+        /** Post ids must arrive in ascending order. */
+        synchronized void addPost(int postId, String content) {
+            for (String t : tokens(content)) postings.computeIfAbsent(t, k -> new IntList(2)).add(postId);
+            postCount++;
+        }
+
+        synchronized void addUser(String username) {
+            int slot = names.size();
+            String lower = username.toLowerCase(Locale.ROOT);
+            names.add(username);
+            lowerNames.add(lower);
+            Set<String> seen = new HashSet<>();
+            for (int len = 1; len <= MAX_GRAM; len++)
+                for (int i = 0; i + len <= lower.length(); i++) {
+                    String g = lower.substring(i, i + len);
+                    if (seen.add(g)) grams.computeIfAbsent(g, k -> new IntList(4)).add(slot);
+                }
+        }
+
+        /** Withdraws a name whose row failed to commit; its slot stays, empty, so other slots keep their numbers. */
+        synchronized void removeUser(String username) {
+            for (int slot = names.size() - 1; slot >= 0; slot--) {
+                if (!username.equals(names.get(slot))) continue;
+                String lower = lowerNames.get(slot);
+                for (int len = 1; len <= MAX_GRAM; len++)
+                    for (int i = 0; i + len <= lower.length(); i++) {
+                        IntList g = grams.get(lower.substring(i, i + len));
+                        if (g != null) g.remove(slot);
+                    }
+                names.set(slot, null);
+                lowerNames.set(slot, null);
+                return;
+            }
+        }
+
+        /**
+         * Post ids matching any query term, best first: each matched term adds its idf, so rare terms outweigh common ones;
+         * equal scores go newest first. A single-term query is read straight off the end of its posting list.
+         */
+        synchronized int[] searchPosts(String query, int offset, int limit) {
+            List<IntList> lists = new ArrayList<>();
+            List<Integer> weights = new ArrayList<>();
+            for (String t : tokens(query)) {
+                IntList p = postings.get(t);
+                if (p == null) continue;
+                lists.add(p);
+                weights.add((int) (1000 * Math.log(1 + (double) postCount / p.size())));
+            }
+            if (lists.isEmpty() || limit <= 0) return new int[0];
+            if (lists.size() == 1) {
+                IntList p = lists.get(0);
+                int from = p.size() - 1 - offset, n = Math.max(0, Math.min(limit, from + 1));
+                int[] out = new int[n];
+                for (int i = 0; i < n; i++) out[i] = p.get(from - i);
+                return out;
+            }
+            IntIntMap scores = new IntIntMap();
+            for (int l = 0; l < lists.size(); l++) {
+                IntList p = lists.get(l);
+                int w = weights.get(l);
+                for (int i = 0; i < p.size(); i++) scores.addTo(p.get(i), w);
+            }
+            // keep the best offset + limit as (score << 32 | id) in a min-heap
+            int keep = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+            PriorityQueue<Long> best = new PriorityQueue<>();
+            for (int id : scores.keys()) {
+                best.add((long) scores.get(id, 0) << 32 | id);
+                if (best.size() > keep) best.poll();
+            }
+            return page(best, offset);
+        }
+
+        /** Usernames containing the query, case-insensitively: exact match first, then prefixes, then the rest; each group alphabetical. */
+        synchronized List<String> searchUsers(String query, int offset, int limit) {
+            String q = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+            List<String> out = new ArrayList<>();
+            if (q.isEmpty() || limit <= 0) return out;
+            // candidates come from the rarest gram of the query; longer queries are verified against the full name
+            IntList candidates = null;
+            for (int i = 0; i + Math.min(q.length(), MAX_GRAM) <= q.length(); i++) {
+                IntList g = grams.get(q.substring(i, i + Math.min(q.length(), MAX_GRAM)));
+                if (g == null) return out;
+                if (candidates == null || g.size() < candidates.size()) candidates = g;
+            }
+            List<String> hits = new ArrayList<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                int slot = candidates.get(i);
+                if (lowerNames.get(slot).contains(q)) hits.add(names.get(slot));
+            }
+            hits.sort(Comparator.<String>comparingInt(n -> rank(n.toLowerCase(Locale.ROOT), q)).thenComparing(String.CASE_INSENSITIVE_ORDER));
+            for (int i = offset; i < hits.size() && out.size() < limit; i++) out.add(hits.get(i));
+            return out;
+        }
+
+        private static int rank(String name, String q) { return name.equals(q) ? 0 : name.startsWith(q) ? 1 : 2; }
+
+        private static int[] page(PriorityQueue<Long> best, int offset) {
+            int[] out = new int[Math.max(0, best.size() - offset)];
+            // the heap yields worst first, so rank i (0 = best) is polled at step size - 1 - i
+            for (int i = best.size() - 1; i >= 0; i--) {
+                long v = best.poll();
+                if (i >= offset) out[i - offset] = (int) v;
+            }
+            return out;
+        }
+    }
+
+    // --- Password hashing: salted PBKDF2 on a bounded pool, with a cache of recent successful verifications ---
+    static class PasswordHasher {
+        static final PasswordHasher SHARED = new PasswordHasher(Integer.getInteger("social.auth.iterations", 120_000),
+                Integer.getInteger("social.auth.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Integer.getInteger("social.auth.queue", 64), Integer.getInteger("social.auth.cacheSize", 10_000));
+
+        private static final String PREFIX = "pbkdf2$";
+        private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+        final int iterations;
+        private final ThreadPoolExecutor pool;
+        private final SecureRandom random = new SecureRandom();
+        // stored hash -> HMAC of the password that matched it, keyed per process; a hit skips PBKDF2 without keeping passwords
+        private final Map<String, byte[]> verified;
+        private final Mac cacheMac;
+
+        /** A full queue rejects new work with RejectedExecutionException instead of queueing without bound. cacheSize 0 disables the cache. */
+        PasswordHasher(int iterations, int threads, int maxQueued, int cacheSize) {
+            this.iterations = iterations;
+            this.pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(maxQueued), r -> {
+                Thread t = new Thread(r, "password-hasher");
+                t.setDaemon(true);
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            this.verified = cacheSize <= 0 ? null : Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(Map.Entry<String, byte[]> e) { return size() > cacheSize; }
+            });
+            try {
+                byte[] key = new byte[32];
+                random.nextBytes(key);
+                cacheMac = Mac.getInstance("HmacSHA256");
+                cacheMac.init(new SecretKeySpec(key, "HmacSHA256"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        static boolean isHashed(String stored) { return stored != null && stored.startsWith(PREFIX); }
+
+        /** True for plaintext rows and for hashes made with fewer iterations than currently configured. */
+        boolean needsRehash(String stored) {
+            if (!isHashed(stored)) return true;
+            String[] parts = stored.split("\\$");
+            if (parts.length != 4) return true;
+            try {
+                return Integer.parseInt(parts[1]) < iterations;
+            } catch (NumberFormatException e) {
+                return true; // a damaged or hand-edited column; a fresh hash replaces it
+            }
+        }
+
+        /** "pbkdf2$iterations$salt$hash" (base64 parts, no commas); runs on the pool and blocks the caller until done. */
+        String hash(String password) {
+            byte[] salt = new byte[16];
+            random.nextBytes(salt);
+            byte[] dk = await(() -> derive(password, salt, iterations));
+            Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+            return PREFIX + iterations + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(dk);
+        }
+
+        /** Checks a password against a stored hash, or against a legacy plaintext (escaped) column. */
+        boolean verify(String password, String stored) {
+            if (stored == null) return false;
+            if (!isHashed(stored))
+                return MessageDigest.isEqual(CSVStore.escape(password).getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+            byte[] tag = verified == null ? null : tag(password);
+            if (tag != null) {
+                byte[] known = verified.get(stored);
+                if (known != null && MessageDigest.isEqual(known, tag)) return true;
+            }
+            String[] parts = stored.split("\\$");
+            if (parts.length != 4) return false;
+            byte[] salt, expected;
+            int cost;
+            try {
+                salt = Base64.getDecoder().decode(parts[2]);
+                expected = Base64.getDecoder().decode(parts[3]);
+                cost = Integer.parseInt(parts[1]);
+            } catch (IllegalArgumentException e) {
+                return false; // a damaged column matches no password (NumberFormatException is one of these too)
+            }
+            if (cost <= 0) return false;
+            boolean ok = MessageDigest.isEqual(expected, await(() -> derive(password, salt, cost)));
+            if (ok && tag != null) verified.put(stored, tag);
+            return ok;
+        }
+
+        int queued() { return pool.getQueue().size(); }
+
+        private byte[] tag(String password) {
+            synchronized (cacheMac) { return cacheMac.doFinal(password.getBytes(StandardCharsets.UTF_8)); }
+        }
+
+        private byte[] await(Callable<byte[]> work) {
+            Future<byte[]> f = pool.submit(work);
+            try {
+                return f.get();
+            } catch (InterruptedException e) {
+                f.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while hashing", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        private static byte[] derive(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+            try {
+                return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+            } finally {
+                spec.clearPassword();
+            }
+        }
+    }
+
+    // --- Fan-out-on-write home timelines: bounded per-user feed buffers of post ids ---
+    static class FeedFanout {
+        final int capacity;
+        final int celebrityThreshold;
+        // only users who have read their timeline since startup get a buffer; the rest are built on first read
+        private final Map<Integer, IntRing> feeds = new HashMap<>();
+
+        FeedFanout(int capacity, int celebrityThreshold) { this.capacity = capacity; this.celebrityThreshold = celebrityThreshold; }
+
+        /** Authors above the threshold are not fanned out; their followers pull their posts at read time. */
+        boolean isCelebrity(int followerCount) { return followerCount > celebrityThreshold; }
+
+        void onPost(int authorId, int postId, int[] followers) {
+            IntRing own = feeds.get(authorId);
+            if (own != null) own.push(postId);
+            if (isCelebrity(followers.length)) return;
+            for (int f : followers) {
+                IntRing ring = feeds.get(f);
+                if (ring != null) ring.push(postId);
+            }
+        }
+
+        IntRing feed(int userId) { return feeds.get(userId); }
+        void put(int userId, IntRing ring) { feeds.put(userId, ring); }
+        void invalidate(int userId) { feeds.remove(userId); }
+    }
+
+    /** Fixed-capacity ring of ints; pushing onto a full ring overwrites the oldest entry. */
+    static class IntRing {
+        private final int[] buf;
+        private int head, size; // head = next write slot
+
+        IntRing(int capacity) { buf = new int[capacity]; }
+
+        void push(int v) {
+            buf[head] = v;
+            head = (head + 1) % buf.length;
+            if (size < buf.length) size++;
+        }
+
+        int size() { return size; }
+
+        /** i = 0 is the most recently pushed value. */
+        int newest(int i) {
+            if (i < 0 || i >= size) throw new IndexOutOfBoundsException(i);
+            return buf[(head - 1 - i + buf.length) % buf.length];
+        }
+    }
+
+    /** Growable int array. */
+    static class IntList {
+        private int[] a;
+        private int size;
+
+        IntList() { this(8); }
+        IntList(int capacity) { a = new int[Math.max(capacity, 1)]; }
+
+        void add(int v) {
+            if (size == a.length) a = Arrays.copyOf(a, size << 1);
+            a[size++] = v;
+        }
+
+        /** Inserts v keeping an ascending list ascending; cheap when v is at or near the end. */
+        void addSorted(int v) {
+            add(v);
+            int i = size - 1;
+            for (; i > 0 && a[i - 1] > v; i--) a[i] = a[i - 1];
+            a[i] = v;
+        }
+
+        int get(int i) {
+            if (i >= size) throw new IndexOutOfBoundsException(i);
+            return a[i];
+        }
+
+        int size() { return size; }
+        void sort() { Arrays.sort(a, 0, size); }
+
+        /** Removes the last occurrence of v; false if absent. */
+        boolean remove(int v) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (a[i] != v) continue;
+                System.arraycopy(a, i + 1, a, i, size - i - 1);
+                size--;
+                return true;
+            }
+            return false;
+        }
+        int[] toArray() { return Arrays.copyOf(a, size); }
+
+        /** Number of elements strictly below v; the list must be sorted ascending. */
+        int countBelow(int v) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (a[mid] < v) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        /** k-way merge of ascending lists: the largest (up to limit) values below bound, in descending order. */
+        static int[] mergeNewest(List<IntList> lists, int bound, int limit) {
+            // heap entries are {list index, position}, ordered by the value at that position, largest first
+            PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, lists.size()),
+                    (x, y) -> Integer.compare(lists.get(y[0]).a[y[1]], lists.get(x[0]).a[x[1]]));
+            for (int i = 0; i < lists.size(); i++) {
+                int pos = lists.get(i).countBelow(bound) - 1;
+                if (pos >= 0) heap.add(new int[] { i, pos });
+            }
+            IntList out = new IntList(Math.min(Math.max(limit, 1), 256));
+            int last = Integer.MAX_VALUE;
+            while (out.size() < limit && !heap.isEmpty()) {
+                int[] top = heap.poll();
+                int v = lists.get(top[0]).a[top[1]];
+                if (v != last) { out.add(v); last = v; }
+                if (--top[1] >= 0) heap.add(top);
+            }
+            return out.toArray();
+        }
+    }
+
+    // --- Per-post like sets: a sorted int array while small, a bitmap over user ids once that is no bigger ---
+    static class PostLikes {
+        /** Third column of a likes.csv row that withdraws the like instead of adding it. */
+        static final String UNLIKE = "unlike";
+
+        /** Users who liked one post; exactly one of the two representations is in use. */
+        static final class LikeSet {
+            private static final int MIN_BITMAP = 64; // small sets always stay arrays
+            private int[] ids = new int[2]; // ascending, first size entries; null while bits is in use
+            private long[] bits;            // bit u set = user u liked
+            private int size;
+
+            int size() { return size; }
+
+            boolean contains(int userId) {
+                if (userId < 0) return false;
+                if (bits != null) {
+                    int w = userId >>> 6;
+                    return w < bits.length && (bits[w] & (1L << userId)) != 0;
+                }
+                return Arrays.binarySearch(ids, 0, size, userId) >= 0;
+            }
+
+            boolean add(int userId) {
+                if (userId < 0) throw new IllegalArgumentException("negative user id");
+                if (bits != null) {
+                    int w = userId >>> 6;
+                    if (w >= bits.length) bits = Arrays.copyOf(bits, Math.max(w + 1, bits.length * 2));
+                    if ((bits[w] & (1L << userId)) != 0) return false;
+                    bits[w] |= 1L << userId;
+                } else {
+                    int at = Arrays.binarySearch(ids, 0, size, userId);
+                    if (at >= 0) return false;
+                    at = -at - 1;
+                    if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+                    System.arraycopy(ids, at, ids, at + 1, size - at);
+                    ids[at] = userId;
+                }
+                size++;
+                rebalance();
+                return true;
+            }
+
+            boolean remove(int userId) {
+                if (!contains(userId)) return false;
+                if (bits != null) bits[userId >>> 6] &= ~(1L << userId);
+                else {
+                    int at = Arrays.binarySearch(ids, 0, size, userId);
+                    System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+                }
+                size--;
+                rebalance();
+                return true;
+            }
+
+            /** Liking users, ascending. */
+            int[] toArray() {
+                if (bits == null) return Arrays.copyOf(ids, size);
+                int[] out = new int[size];
+                int n = 0;
+                for (int w = 0; w < bits.length; w++)
+                    for (long word = bits[w]; word != 0; word &= word - 1) out[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                return out;
+            }
+
+            // switch to whichever form is smaller; going back to an array needs a 2x margin so a set near the line doesn't flip-flop
+            private void rebalance() {
+                if (bits == null) {
+                    if (size < MIN_BITMAP) return;
+                    long bitmapBytes = ((ids[size - 1] >>> 6) + 1) * 8L;
+                    if (bitmapBytes > size * 4L) return;
+                    long[] b = new long[(ids[size - 1] >>> 6) + 1];
+                    for (int i = 0; i < size; i++) b[ids[i] >>> 6] |= 1L << ids[i];
+                    bits = b;
+                    ids = null;
+                } else if (size < MIN_BITMAP / 2 || bits.length * 8L > 2 * size * 4L) {
+                    int[] a = toArray();
+                    ids = Arrays.copyOf(a, Math.max(2, a.length));
+                    bits = null;
+                }
+            }
+        }
+
+        // posts are spread over segments, each guarding its own map, so likes on different posts rarely contend
+        private static final class Segment {
+            final Map<Integer, LikeSet> byPost = new HashMap<>();
+        }
+        private final Segment[] segments = new Segment[64];
+
+        PostLikes() { for (int i = 0; i < segments.length; i++) segments[i] = new Segment(); }
+
+        /** Lock for one post's set. Callers hold it around check, update and log enqueue so the log replays to the same sets. */
+        Object stripe(int postId) { return segments[IntSet.mix(postId) & (segments.length - 1)]; }
+
+        private Segment segment(int postId) { return (Segment) stripe(postId); }
+
+        /** Runs body holding every post's stripe, so no like or unlike can change a set or queue its row meanwhile. */
+        void frozen(GroupCommitLog.IOAction body) throws IOException { frozen(0, body); }
+
+        private void frozen(int i, GroupCommitLog.IOAction body) throws IOException {
+            if (i == segments.length) body.run();
+            else synchronized (segments[i]) { frozen(i + 1, body); }
+        }
+
+        boolean add(int postId, int userId) {
+            Segment seg = segment(postId);
+            synchronized (seg) { return seg.byPost.computeIfAbsent(postId, k -> new LikeSet()).add(userId); }
+        }
+
+        boolean remove(int postId, int userId) {
+            Segment seg = segment(postId);
+            synchronized (seg) {
+                LikeSet s = seg.byPost.get(postId);
+                if (s == null || !s.remove(userId)) return false;
+                if (s.size() == 0) seg.byPost.remove(postId);
+                return true;
+            }
+        }
+
+        boolean contains(int postId, int userId) {
+            Segment seg = segment(postId);
+            synchronized (seg) {
+                LikeSet s = seg.byPost.get(postId);
+                return s != null && s.contains(userId);
+            }
+        }
+
+        int count(int postId) {
+            Segment seg = segment(postId);
+            synchronized (seg) {
+                LikeSet s = seg.byPost.get(postId);
+                return s == null ? 0 : s.size();
+            }
+        }
+
+        /** Posts with at least one like. */
+        int[] postIds() {
+            IntList out = new IntList();
+            for (Segment seg : segments) {
+                synchronized (seg) { for (int pid : seg.byPost.keySet()) out.add(pid); }
+            }
+            return out.toArray();
+        }
+
+        int[] users(int postId) {
+            Segment seg = segment(postId);
+            synchronized (seg) {
+                LikeSet s = seg.byPost.get(postId);
+                return s == null ? new int[0] : s.toArray();
+            }
+        }
+
+        /** Applies one likes.csv row: "postId,userId" likes, a third column of "unlike" withdraws. */
+        void apply(CsvTokenizer row) {
+            if (row.fields() < 2) return;
+            if (row.fields() >= 3 && row.fieldEquals(2, UNLIKE)) remove(row.intField(0), row.intField(1));
+            else add(row.intField(0), row.intField(1));
+        }
+    }
+
+    // --- Per-post like sets and comment counters: maintained on write, snapshotted to disk, replayed from the logs ---
+    static class PostCounters {
+        private static final int MAGIC = 0x53434E32; // "SCN2"; older count-only snapshots are rebuilt from the logs
+        private static final int SNAPSHOT_EVERY = 256;
+
+        private final File likesLog, commentsLog, snapshotFile;
+        // both replaced only by load(), before the owning store is shared; likes locks per post, comments on the map
+        private PostLikes likes = new PostLikes();
+        private IntIntMap comments = new IntIntMap();
+        // log lengths already reflected in the maps
+        private long likesOffset, commentsOffset;
+        private final AtomicInteger dirty = new AtomicInteger();
+        // appends hold the read side so a snapshot never sees a row on disk that isn't counted yet
+        private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+        PostCounters(File likesLog, File commentsLog, File snapshotFile) {
+            this.likesLog = likesLog; this.commentsLog = commentsLog; this.snapshotFile = snapshotFile;
+        }
+
+        int likes(int postId) { return likes.count(postId); }
+        boolean hasLiked(int postId, int userId) { return likes.contains(postId, userId); }
+        PostLikes likeSets() { return likes; }
+
+        /** Lock for one post's likes: held around the hasLiked check, onLike/onUnlike and the log enqueue. */
+        Object likeStripe(int postId) { return likes.stripe(postId); }
+
+        int comments(int postId) {
+            synchronized (comments) { return comments.get(postId, 0); }
+        }
+
+        /** Runs a log append plus its onLike/onComment call; many may run at once, but not during a snapshot. */
+        void record(Runnable appendAndCount) {
+            snapshotLock.readLock().lock();
+            try {
+                appendAndCount.run();
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+            // never wait for the snapshot here: a compaction may hold the read side for a while, and a later call retries
+            if (snapshotDue() && snapshotLock.writeLock().tryLock()) {
+                try {
+                    writeSnapshot();
+                } finally {
+                    snapshotLock.writeLock().unlock();
+                }
+            }
+        }
+
+        /** Records a like whose row is (or is about to be) in the log; false if the user already liked the post. */
+        boolean onLike(int postId, int userId) {
+            if (!likes.add(postId, userId)) return false;
+            dirty.incrementAndGet();
+            return true;
+        }
+
+        /** Records an unlike whose row is (or is about to be) in the log; false if there was no like. */
+        boolean onUnlike(int postId, int userId) {
+            if (!likes.remove(postId, userId)) return false;
+            dirty.incrementAndGet();
+            return true;
+        }
+
+        /** Called after a comment row has been appended to the log. */
+        void onComment(int postId) {
+            synchronized (comments) { comments.addTo(postId, 1); }
+            dirty.incrementAndGet();
+        }
+
+        private boolean snapshotDue() { return dirty.get() >= SNAPSHOT_EVERY; }
+
+        /**
+         * Runs a compaction of the likes or comments log. The snapshot records byte offsets into those logs, so none is taken
+         * meanwhile; the compaction drops the old one via dropSnapshot() when it swaps the file, and a fresh one is written after.
+         */
+        void compacting(Runnable compaction) {
+            snapshotLock.readLock().lock();
+            try {
+                compaction.run();
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+            saveSnapshot();
+        }
+
+        GroupCommitLog.IOAction dropSnapshot() { return () -> Files.deleteIfExists(snapshotFile.toPath()); }
+
+        /** Loads the snapshot and replays whatever the logs gained since; rebuilds from scratch if the snapshot is unusable. */
+        synchronized void load() {
+            if (!readSnapshot() || likesOffset > likesLog.length() || commentsOffset > commentsLog.length()) {
+                likes = new PostLikes(); comments = new IntIntMap();
+                likesOffset = 0; commentsOffset = 0;
+            }
+            boolean replayed = likesOffset < likesLog.length() || commentsOffset < commentsLog.length();
+            likesOffset = replay(likesLog, likesOffset, likes::apply);
+            commentsOffset = replay(commentsLog, commentsOffset, t -> { if (t.fields() >= 3) comments.addTo(t.intField(1), 1); });
+            if (replayed) saveSnapshot();
+        }
+
+        private boolean readSnapshot() {
+            if (!snapshotFile.exists()) return false;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+                if (in.readInt() != MAGIC) return false;
+                likesOffset = in.readLong();
+                commentsOffset = in.readLong();
+                int n = in.readInt();
+                IntIntMap c = new IntIntMap(n);
+                for (int i = 0; i < n; i++) c.put(in.readInt(), in.readInt());
+                PostLikes l = new PostLikes();
+                for (int posts = in.readInt(); posts > 0; posts--) {
+                    int pid = in.readInt();
+                    for (int k = in.readInt(); k > 0; k--) l.add(pid, in.readInt());
+                }
+                likes = l; comments = c;
+                return true;
+            } catch (IOException e) {
+                // torn or foreign snapshot: fall back to a full rebuild
+                return false;
+            }
+        }
+
+        interface RowHandler { void accept(CsvTokenizer row); }
+
+        private static long replay(File log, long from, RowHandler handler) {
+            long end = log.length();
+            if (from >= end) return from;
+            try (InputStream in = new FileInputStream(log)) {
+                long skipped = 0;
+                while (skipped < from) {
+                    long k = in.skip(from - skipped);
+                    if (k <= 0) return from;
+                    skipped += k;
+                }
+                CsvTokenizer t = new CsvTokenizer(new InputStreamReader(in));
+                while (t.next()) handler.accept(t);
+                return end;
+            } catch (IOException | NumberFormatException e) {
+                e.printStackTrace();
+                return from;
+            }
+        }
+
+        /** Writes the covered log offsets, postId,comments pairs and each post's liking users, replacing the old snapshot atomically. */
+        void saveSnapshot() {
+            snapshotLock.writeLock().lock();
+            try {
+                writeSnapshot();
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+        }
+
+        private void writeSnapshot() {
+            dirty.set(0);
+            // no append is in flight, so every row in the logs is already counted
+            likesOffset = likesLog.length();
+            commentsOffset = commentsLog.length();
+            File tmp = new File(snapshotFile.getPath() + ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeLong(likesOffset);
+                    out.writeLong(commentsOffset);
+                    synchronized (comments) {
+                        int[] commented = comments.keys();
+                        out.writeInt(commented.length);
+                        for (int pid : commented) {
+                            out.writeInt(pid);
+                            out.writeInt(comments.get(pid, 0));
+                        }
+                    }
+                    int[] liked = likes.postIds();
+                    out.writeInt(liked.length);
+                    for (int pid : liked) {
+                        int[] users = likes.users(pid);
+                        out.writeInt(pid);
+                        out.writeInt(users.length);
+                        for (int u : users) out.writeInt(u);
+                    }
+                }
+                Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // --- Primitive int collections (open addressing, linear probing) used by the stores ---
+    static class IntSet {
+        private static final int FREE = Integer.MIN_VALUE;
+        private int[] keys;
+        private int size;
+
+        IntSet() { this(16); }
+        IntSet(int expected) {
+            int cap = 16;
+            while (cap * 3 < expected * 4) cap <<= 1;
+            keys = new int[cap];
+            Arrays.fill(keys, FREE);
+        }
+
+        int size() { return size; }
+        boolean isEmpty() { return size == 0; }
+
+        boolean contains(int k) {
+            int mask = keys.length - 1;
+            for (int i = mix(k) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == k) return true;
+                if (keys[i] == FREE) return false;
+            }
+        }
+
+        boolean add(int k) {
+            if (k == FREE) throw new IllegalArgumentException("reserved key");
+            int mask = keys.length - 1;
+            int i = mix(k) & mask;
+            for (; keys[i] != FREE; i = (i + 1) & mask) if (keys[i] == k) return false;
+            keys[i] = k;
+            if (++size * 4 > keys.length * 3) rehash(keys.length << 1);
+            return true;
+        }
+
+        boolean remove(int k) {
+            int mask = keys.length - 1;
+            int i = mix(k) & mask;
+            for (; keys[i] != k; i = (i + 1) & mask) if (keys[i] == FREE) return false;
+            // backward-shift deletion keeps probe chains intact without tombstones
+            for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+                int home = mix(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) { keys[i] = keys[j]; i = j; }
+            }
+            keys[i] = FREE;
+            size--;
+            return true;
+        }
+
+        int[] toArray() {
+            int[] out = new int[size];
+            int n = 0;
+            for (int k : keys) if (k != FREE) out[n++] = k;
+            return out;
+        }
+
+        private void rehash(int cap) {
+            int[] old = keys;
+            keys = new int[cap];
+            Arrays.fill(keys, FREE);
+            size = 0;
+            for (int k : old) if (k != FREE) add(k);
+        }
+
+        static int mix(int k) { int h = k * 0x9E3779B9; return h ^ (h >>> 16); }
+    }
+
+    /** IntSet for long keys, e.g. (a, b) id pairs packed as a << 32 | b. */
+    static class LongSet {
+        private static final long FREE = Long.MIN_VALUE;
+        private long[] keys = new long[16];
+        private int size;
+
+        LongSet() { Arrays.fill(keys, FREE); }
+
+        int size() { return size; }
+
+        boolean add(long k) {
+            if (k == FREE) throw new IllegalArgumentException("reserved key");
+            int mask = keys.length - 1;
+            int i = mix(k) & mask;
+            for (; keys[i] != FREE; i = (i + 1) & mask) if (keys[i] == k) return false;
+            keys[i] = k;
+            if (++size * 4 > keys.length * 3) rehash(keys.length << 1);
+            return true;
+        }
+
+        boolean remove(long k) {
+            int mask = keys.length - 1;
+            int i = mix(k) & mask;
+            for (; keys[i] != k; i = (i + 1) & mask) if (keys[i] == FREE) return false;
+            for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+                int home = mix(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) { keys[i] = keys[j]; i = j; }
+            }
+            keys[i] = FREE;
+            size--;
+            return true;
+        }
+
+        long[] toArray() {
+            long[] out = new long[size];
+            int n = 0;
+            for (long k : keys) if (k != FREE) out[n++] = k;
+            return out;
+        }
+
+        private void rehash(int cap) {
+            long[] old = keys;
+            keys = new long[cap];
+            Arrays.fill(keys, FREE);
+            size = 0;
+            for (long k : old) if (k != FREE) add(k);
+        }
+
+        static int mix(long k) { return IntSet.mix((int) (k ^ (k >>> 32))); }
+    }
+
+    static class IntIntMap {
+        private static final int FREE = Integer.MIN_VALUE;
+        private int[] keys, values;
+        private int size;
+
+        IntIntMap() { this(16); }
+        IntIntMap(int expected) {
+            int cap = 16;
+            while (cap * 3 < expected * 4) cap <<= 1;
+            keys = new int[cap];
+            values = new int[cap];
+            Arrays.fill(keys, FREE);
+        }
+
+        int size() { return size; }
+
+        int get(int k, int dflt) {
+            int mask = keys.length - 1;
+            for (int i = IntSet.mix(k) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == k) return values[i];
+                if (keys[i] == FREE) return dflt;
+            }
+        }
+
+        boolean containsKey(int k) {
+            int mask = keys.length - 1;
+            for (int i = IntSet.mix(k) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == k) return true;
+                if (keys[i] == FREE) return false;
+            }
+        }
+
+        void put(int k, int v) { values[slot(k)] = v; }
+
+        /** Adds delta to the value for k (absent counts as 0) and returns the new value. */
+        int addTo(int k, int delta) { int i = slot(k); return values[i] += delta; }
+
+        int[] keys() {
+            int[] out = new int[size];
+            int n = 0;
+            for (int k : keys) if (k != FREE) out[n++] = k;
+            return out;
+        }
+
+        private int slot(int k) {
+            if (k == FREE) throw new IllegalArgumentException("reserved key");
+            int mask = keys.length - 1;
+            int i = IntSet.mix(k) & mask;
+            for (; keys[i] != FREE; i = (i + 1) & mask) if (keys[i] == k) return i;
+            if ((size + 1) * 4 > keys.length * 3) { rehash(keys.length << 1); return slot(k); }
+            keys[i] = k;
+            values[i] = 0;
+            size++;
+            return i;
+        }
+
+        private void rehash(int cap) {
+            int[] oldK = keys, oldV = values;
+            keys = new int[cap];
+            values = new int[cap];
+            Arrays.fill(keys, FREE);
+            size = 0;
+            for (int i = 0; i < oldK.length; i++) if (oldK[i] != FREE) put(oldK[i], oldV[i]);
+        }
+    }
+
+    // --- UI components ---
+    private DataStore store;
+
+    private CardLayout cards = new CardLayout();
     private JPanel root = new JPanel(cards);
 
-    private JTextField loginUser = new JTextField(15);
-    private JPasswordField loginPass = new JPasswordField(15);
-    private JTextField regUser = new JTextField(15);
-    private JPasswordField regPass = new JPasswordField(15);
+    private JTextField loginUser = new JTextField(15);
+    private JPasswordField loginPass = new JPasswordField(15);
+    private JTextField regUser = new JTextField(15);
+    private JPasswordField regPass = new JPasswordField(15);
+
+    private JLabel welcomeLabel = new JLabel();
+    private TimelineModel timelineModel = new TimelineModel();
+    private JList<PostItem> timelineList = new JList<>(timelineModel);
+    private JTextArea newPostArea = new JTextArea(3, 30);
+    private DefaultListModel<String> usersModel = new DefaultListModel<>();
+    private JList<String> usersList = new JList<>(usersModel);
+    private boolean usersFiltered = false; // the users list shows search results rather than everyone
+
+    private int currentUserId = -1;
+    private String currentUsername = null;
+    private boolean dark = false;
+
+    // creates the demo accounts on first run; sign-ins wait for it
+    private SwingWorker<Void, Void> seeding;
+
+    // timeline paging: rows are loaded a page at a time as the list scrolls
+    private static final int TIMELINE_PAGE = 50;
+    private boolean timelineExhausted = false;
+
+    // hover zoom window
+    private final JWindow hoverWindow = new JWindow();
+    private final JLabel hoverLabel = new JLabel();
+    private File hoverSource;
+
+    public SocialMediaAppFull() {
+        setTitle("SocialMediaApp - AURA GOD MODE");
+        setSize(1100, 750);
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        setLocationRelativeTo(null);
+
+        store = createStore();
+        if (!store.init()) { JOptionPane.showMessageDialog(this, "Storage init failed"); System.exit(1); }
+        store.addListener(new DataStore.Listener() {
+            public void userAdded(String username) { SwingUtilities.invokeLater(() -> { if (!usersFiltered) insertUser(username); }); }
+            public void postAdded(PostItem post) { SwingUtilities.invokeLater(() -> onPostAdded(post)); }
+            public void countersChanged(int postId, int likes, int comments) {
+                SwingUtilities.invokeLater(() -> { if (currentUserId != -1) timelineModel.updateCounts(postId, likes, comments, store.hasLiked(postId, currentUserId)); });
+            }
+            public void followChanged(int followerId, int followeeId, boolean following) {
+                SwingUtilities.invokeLater(() -> { if (followerId == currentUserId) refreshTimeline(); });
+            }
+        });
+
+        // first run: the demo accounts need three password hashes, so they are created off the EDT, like a login
+        seeding = new SwingWorker<Void, Void>() {
+            protected Void doInBackground() {
+                if (!store.allUsernames().isEmpty()) return null;
+                store.createUser("john","123");
+                store.createUser("jane","456");
+                store.createUser("admin","admin");
+                int j = store.getUserId("john"); int ja = store.getUserId("jane");
+                store.addPost(j, "Hello from John! #welcome", "");
+                store.addPost(ja, "Jane's first post :)", "");
+                return null;
+            }
+            protected void done() {
+                try { get(); } catch (InterruptedException | ExecutionException ex) { ex.printStackTrace(); }
+            }
+        };
+        seeding.execute();
+
+        hoverWindow.getContentPane().add(hoverLabel);
+        hoverWindow.setAlwaysOnTop(true);
+
+        root.add(loginPanel(), "login");
+        root.add(registerPanel(), "register");
+        root.add(homePanel(), "home");
+        root.add(adminPanel(), "admin");
+
+        add(root);
+        cards.show(root, "login");
+        setVisible(true);
+    }
+
+    /** -Dsocial.store=csv|indexed|mapped picks the storage engine; indexed is the default. */
+    static DataStore createStore() {
+        DataStore store;
+        switch (System.getProperty("social.store", "indexed")) {
+            case "csv": store = new CSVStore(); break;
+            case "mapped": store = new MappedPostStore(new File("posts_col")); break;
+            default: store = new IndexedStore();
+        }
+        return Metrics.ENABLED ? new InstrumentedStore(store) : store;
+    }
+
+    private JPanel loginPanel() {
+        JPanel p = new JPanel(new GridBagLayout());
+        p.setBorder(new EmptyBorder(20,20,20,20));
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(6,6,6,6);
+        c.gridx = 0; c.gridy = 0;
+        JLabel title = new JLabel("Welcome — Login");
+        title.setFont(new Font("Inter", Font.BOLD, 22));
+        p.add(title, c);
+
+        c.gridy++; p.add(new JLabel("Username:"), c); c.gridx = 1; p.add(loginUser, c);
+        c.gridx = 0; c.gridy++; p.add(new JLabel("Password:"), c); c.gridx = 1; p.add(loginPass, c);
+
+        c.gridx = 0; c.gridy++; JButton loginBtn = new JButton("Login"); p.add(loginBtn, c);
+        c.gridx = 1; JButton gotoReg = new JButton("Register"); p.add(gotoReg, c);
+
+        loginBtn.addActionListener(e -> doLogin());
+        gotoReg.addActionListener(e -> cards.show(root, "register"));
+
+        return p;
+    }
+
+    private JPanel registerPanel() {
+        JPanel p = new JPanel(new GridBagLayout());
+        p.setBorder(new EmptyBorder(20,20,20,20));
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(6,6,6,6);
+        c.gridx = 0; c.gridy = 0;
+        JLabel title = new JLabel("Create account");
+        title.setFont(new Font("Inter", Font.BOLD, 22));
+        p.add(title, c);
+
+        c.gridy++; p.add(new JLabel("Username:"), c); c.gridx = 1; p.add(regUser, c);
+        c.gridx = 0; c.gridy++; p.add(new JLabel("Password:"), c); c.gridx = 1; p.add(regPass, c);
+
+        c.gridx = 0; c.gridy++; JButton create = new JButton("Create"); p.add(create, c);
+        c.gridx = 1; JButton back = new JButton("Back"); p.add(back, c);
+
+        create.addActionListener(e -> doRegister());
+        back.addActionListener(e -> cards.show(root, "login"));
+        return p;
+    }
+
+    private JPanel homePanel() {
+        JPanel outer = new JPanel(new BorderLayout());
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        welcomeLabel.setFont(new Font("SansSerif", Font.BOLD, 16));
+        top.add(welcomeLabel);
+        JButton avatarBtn = new JButton("Set Avatar"); top.add(avatarBtn);
+        JButton logout = new JButton("Logout"); top.add(logout);
+        JButton adminBtn = new JButton("Admin"); top.add(adminBtn);
+        JButton theme = new JButton("Toggle Theme"); top.add(theme);
+        JButton refresh = new JButton("Refresh"); top.add(refresh);
+
+        avatarBtn.addActionListener(e -> chooseAvatar());
+        logout.addActionListener(e -> { currentUserId = -1; currentUsername = null; cards.show(root, "login"); });
+        adminBtn.addActionListener(e -> cards.show(root, "admin"));
+        theme.addActionListener(e -> toggleTheme());
+        refresh.addActionListener(e -> refreshHome());
+
+        outer.add(top, BorderLayout.NORTH);
+
+        JSplitPane center = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
+        center.setDividerLocation(700);
+
+        JPanel timelinePanel = new JPanel(new BorderLayout());
+        timelinePanel.setBorder(new EmptyBorder(8,8,8,8));
+        JLabel tlabel = new JLabel("Timeline"); tlabel.setFont(new Font("SansSerif", Font.BOLD, 18)); timelinePanel.add(tlabel, BorderLayout.NORTH);
+        PostRenderer renderer = new PostRenderer();
+        timelineList.setCellRenderer(renderer);
+        // -Dsocial.timeline.fixedCells=true: every row is one image-row tall (long text is clipped), so layout is O(1);
+        // otherwise row heights are cached and only measured once a row is painted
+        if (Boolean.getBoolean("social.timeline.fixedCells")) timelineList.setFixedCellHeight(new PostRenderer().fixedHeight());
+        else timelineList.setUI(new CachedHeightListUI(new PostRenderer()));
+        JScrollPane tlScroll = new JScrollPane(timelineList);
+        tlScroll.getViewport().addChangeListener(e -> renderer.cancelOffscreen(timelineList));
+        tlScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            BoundedRangeModel m = ((JScrollBar) e.getAdjustable()).getModel();
+            if (m.getValue() + m.getExtent() >= m.getMaximum() - 200) loadMoreTimeline();
+        });
+        timelinePanel.add(tlScroll, BorderLayout.CENTER);
+
+        JPanel composer = new JPanel(new BorderLayout());
+        composer.setBorder(new EmptyBorder(6,6,6,6));
+        newPostArea.setLineWrap(true); newPostArea.setWrapStyleWord(true);
+        composer.add(new JScrollPane(newPostArea), BorderLayout.CENTER);
+        JPanel act = new JPanel();
+        JButton imgBtn = new JButton("Attach Image"); act.add(imgBtn);
+        JButton postBtn = new JButton("Post"); act.add(postBtn);
+        JButton likeBtn = new JButton("Like / Unlike"); act.add(likeBtn);
+        JButton commentBtn = new JButton("Comment"); act.add(commentBtn);
+        composer.add(act, BorderLayout.SOUTH);
+        timelinePanel.add(composer, BorderLayout.SOUTH);
+
+        final String[] attachedImage = {null};
+        imgBtn.addActionListener(e -> {
+            JFileChooser fc = new JFileChooser();
+            fc.setFileFilter(new FileNameExtensionFilter("Images", ImageIO.getReaderFileSuffixes()));
+            int r = fc.showOpenDialog(this);
+            if (r == JFileChooser.APPROVE_OPTION) {
+                File chosen = fc.getSelectedFile();
+                try {
+                    String destName = System.currentTimeMillis() + "_" + chosen.getName();
+                    ImageIngest.ingest(chosen, new File("posts_images", destName), ImageIngest.POST_SIZES, false);
+                    attachedImage[0] = destName;
+                    JOptionPane.showMessageDialog(this, "Image attached: " + destName);
+                } catch (IOException ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(this, "Image attach failed: "+ex.getMessage()); }
+            }
+        });
+
+        postBtn.addActionListener(e -> {
+            store.addPost(currentUserId, newPostArea.getText().trim(), attachedImage[0]);
+            attachedImage[0] = null; newPostArea.setText("");
+        });
+        likeBtn.addActionListener(e -> doLikeSelected());
+        commentBtn.addActionListener(e -> doCommentSelected());
+
+        JPanel right = new JPanel(new BorderLayout());
+        right.setBorder(new EmptyBorder(8,8,8,8));
+        right.add(new JLabel("Explore Users"), BorderLayout.NORTH);
+        usersList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        JScrollPane usersScroll = new JScrollPane(usersList);
+        right.add(usersScroll, BorderLayout.CENTER);
+        JPanel userAct = new JPanel();
+        JButton followBtn = new JButton("Follow"); userAct.add(followBtn);
+        JButton viewProfile = new JButton("View Profile"); userAct.add(viewProfile);
+        JTextField search = new JTextField(12); userAct.add(search);
+        JButton searchBtn = new JButton("Search"); userAct.add(searchBtn);
+        JButton searchPostsBtn = new JButton("Search Posts"); userAct.add(searchPostsBtn);
+        right.add(userAct, BorderLayout.SOUTH);
+
+        followBtn.addActionListener(e -> doFollowSelected());
+        viewProfile.addActionListener(e -> doViewProfile());
+        searchBtn.addActionListener(e -> doSearch(search.getText()));
+        searchPostsBtn.addActionListener(e -> doSearchPosts(search.getText()));
+
+        center.setLeftComponent(timelinePanel);
+        center.setRightComponent(right);
+        outer.add(center, BorderLayout.CENTER);
+        return outer;
+    }
+
+    private JPanel adminPanel() {
+        JPanel p = new JPanel(new BorderLayout());
+        JPanel top = new JPanel();
+        top.add(new JLabel("Admin Panel"));
+        JButton back = new JButton("Back"); top.add(back);
+        JComboBox<DataExporter.Format> format = new JComboBox<>(DataExporter.Format.values()); top.add(format);
+        JButton export = new JButton("Export Data"); top.add(export);
+        JProgressBar progress = new JProgressBar(0, 100); progress.setStringPainted(true); progress.setVisible(false); top.add(progress);
+        JButton cancel = new JButton("Cancel"); cancel.setVisible(false); top.add(cancel);
+        p.add(top, BorderLayout.NORTH);
+
+        JTable table = new JTable();
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Users", new JScrollPane(table));
+        tabs.addTab("Metrics", metricsPanel());
+        p.add(tabs, BorderLayout.CENTER);
+
+        back.addActionListener(e -> cards.show(root, "home"));
+        export.addActionListener(e -> exportData((DataExporter.Format) format.getSelectedItem(), export, progress, cancel));
+
+        DefaultTableModel model = new DefaultTableModel(new Object[] {"ID","Username"}, 0) {
+            @Override public Class<?> getColumnClass(int c) { return c == 0 ? Integer.class : String.class; }
+            @Override public boolean isCellEditable(int r, int c) { return false; }
+        };
+        for (String name : store.allUsernames()) model.addRow(new Object[] { store.getUserId(name), name });
+        table.setModel(model);
+        table.setAutoCreateRowSorter(true);
+        store.addListener(new DataStore.Listener() {
+            public void userAdded(String username) { SwingUtilities.invokeLater(() -> model.addRow(new Object[] { store.getUserId(username), username })); }
+        });
+        return p;
+    }
+
+    /** One row per instrumented operation, refreshed every second while the tab is showing. */
+    private JPanel metricsPanel() {
+        JPanel p = new JPanel(new BorderLayout());
+        if (!Metrics.ENABLED) {
+            p.add(new JLabel("Metrics are off (-Dsocial.metrics=false)", SwingConstants.CENTER), BorderLayout.CENTER);
+            return p;
+        }
+        DefaultTableModel model = new DefaultTableModel(new Object[] {"Operation","Count","Errors","Bytes read","Mean ms","p50 ms","p99 ms","Max ms"}, 0) {
+            @Override public Class<?> getColumnClass(int c) { return c == 0 ? String.class : c <= 3 ? Long.class : Double.class; }
+            @Override public boolean isCellEditable(int r, int c) { return false; }
+        };
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        p.add(new JScrollPane(table), BorderLayout.CENTER);
+        JPanel actions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton reset = new JButton("Reset"); actions.add(reset);
+        JLabel compaction = new JLabel(); actions.add(compaction);
+        actions.add(new JLabel("Also published over JMX as social:type=Operation and social:type=Compaction"));
+        p.add(actions, BorderLayout.SOUTH);
+
+        Runnable refresh = () -> {
+            List<Metrics.Op> ops = Metrics.all();
+            model.setRowCount(ops.size());
+            for (int r = 0; r < ops.size(); r++) {
+                Metrics.Op op = ops.get(r);
+                Object[] row = { op.getName(), op.getCount(), op.getErrors(), op.getBytesRead(),
+                        round(op.getMeanMillis()), round(op.getP50Millis()), round(op.getP99Millis()), round(op.getMaxMillis()) };
+                // only changed cells, so sorting and selection survive the refresh
+                for (int c = 0; c < row.length; c++) if (!row[c].equals(model.getValueAt(r, c))) model.setValueAt(row[c], r, c);
+            }
+            LogCompactor.Stats all = LogCompactor.ALL;
+            compaction.setText("Log compaction: " + all.getCompactions() + " runs, " + all.getBytesReclaimed() / 1024 + " KB reclaimed, "
+                    + all.getTotalMillis() + " ms total, last " + all.getLastMillis() + " ms");
+        };
+        reset.addActionListener(e -> { for (Metrics.Op op : Metrics.all()) op.reset(); refresh.run(); });
+        new Timer(1000, e -> { if (p.isShowing()) refresh.run(); }).start();
+        return p;
+    }
+
+    private static double round(double millis) { return Math.round(millis * 1000) / 1000.0; }
+
+    // actions
+    private void doLogin() {
+        String u = loginUser.getText().trim();
+        String p = new String(loginPass.getPassword());
+        if (u.isEmpty() || p.isEmpty()) { JOptionPane.showMessageDialog(this, "Enter credentials"); return; }
+        // password hashing is slow on purpose, so it never runs on the EDT
+        new SwingWorker<Integer, Void>() {
+            protected Integer doInBackground() throws Exception {
+                seeding.get();
+                return store.validateLogin(u,p) ? store.getUserId(u) : -1;
+            }
+            protected void done() {
+                int id;
+                try { id = get(); } catch (InterruptedException | ExecutionException ex) { authFailed(ex); return; }
+                if (id != -1) {
+                    currentUserId = id;
+                    currentUsername = u;
+                    welcomeLabel.setText("Welcome @" + currentUsername + " (ID:" + currentUserId + ")");
+                    refreshHome();
+                    cards.show(root, "home");
+                } else JOptionPane.showMessageDialog(SocialMediaAppFull.this, "Login failed");
+            }
+        }.execute();
+    }
+
+    private void authFailed(Exception ex) {
+        if (ex.getCause() instanceof RejectedExecutionException) { JOptionPane.showMessageDialog(this, "Too many sign-ins right now, please try again"); return; }
+        ex.printStackTrace();
+        JOptionPane.showMessageDialog(this, "Sign-in error: " + ex.getMessage());
+    }
+
+    private void doRegister() {
+        String u = regUser.getText().trim();
+        String p = new String(regPass.getPassword());
+        if (u.isEmpty() || p.isEmpty()) { JOptionPane.showMessageDialog(this, "Enter credentials"); return; }
+        new SwingWorker<Integer, Void>() {
+            protected Integer doInBackground() throws Exception {
+                seeding.get();
+                return store.createUser(u,p);
+            }
+            protected void done() {
+                int id;
+                try { id = get(); } catch (InterruptedException | ExecutionException ex) { authFailed(ex); return; }
+                if (id != -1) JOptionPane.showMessageDialog(SocialMediaAppFull.this, "Account created! Please login."); else JOptionPane.showMessageDialog(SocialMediaAppFull.this, "Registration failed (maybe username taken)");
+            }
+        }.execute();
+    }
+
+    private void doLikeSelected() {
+        PostItem sel = timelineList.getSelectedValue(); if (sel==null) return;
+        // animation: pulse background of selected cell (simple repaint)
+        int idx = timelineList.getSelectedIndex();
+        if (idx >= 0) {
+            final int[] step = {0};
+            Timer t = new Timer(30, ev -> {
+                step[0]++;
+                timelineList.repaint();
+                if (step[0] > 10) ((Timer)ev.getSource()).stop();
+            });
+            t.start();
+        }
+        // the store's change event updates just this row
+        if (sel.liked) store.unlike(sel.postId, currentUserId); else store.like(sel.postId, currentUserId);
+    }
+
+    private void doCommentSelected() {
+        PostItem sel = timelineList.getSelectedValue();
+        if (sel==null) return;
+        String text = JOptionPane.showInputDialog(this, "Enter comment:");
+        if (text!=null && !text.trim().isEmpty()) store.comment(sel.postId, currentUserId, text.trim());
+    }
+
+    private void doFollowSelected() {
+        String sel = usersList.getSelectedValue();
+        if (sel==null) return;
+        int id = store.getUserId(sel);
+        if (id==-1) return;
+        store.follow(currentUserId, id);
+        JOptionPane.showMessageDialog(this, "Now following @"+sel);
+    }
+
+    private void doViewProfile() {
+        String sel = usersList.getSelectedValue(); if (sel==null) return; int id = store.getUserId(sel); if (id==-1) return;
+        JDialog d = new JDialog(this, "Profile - @" + sel, true);
+        d.setSize(800,600); d.setLocationRelativeTo(this);
+        JPanel p = new JPanel(new BorderLayout());
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        String avatar = store.getAvatarFilename(id);
+        JLabel avatarLabel = new JLabel();
+        if (avatar!=null && !avatar.isEmpty()) {
+            try {
+                BufferedImage img = ImageIO.read(ImageIngest.variantFor(new File("avatars", avatar), 80, 80, true));
+                Image circle = ImageUtils.createCircle(img, 80);
+                avatarLabel.setIcon(new ImageIcon(circle));
+            } catch (IOException ignored) { avatarLabel.setText("[No Avatar]"); }
+        } else avatarLabel.setText("[No Avatar]");
+        avatarLabel.setBorder(new EmptyBorder(6,6,6,6));
+        top.add(avatarLabel);
+        JLabel nameL = new JLabel("@"+sel + " (ID:"+id+")"); nameL.setFont(new Font("SansSerif", Font.BOLD, 18)); top.add(nameL);
+        JLabel followersL = new JLabel(); top.add(followersL);
+        JButton follow = new JButton(); top.add(follow);
+        JButton followersBtn = new JButton("Followers"); top.add(followersBtn);
+        Runnable updateFollow = () -> {
+            followersL.setText(store.followerCount(id) + " followers");
+            follow.setText(store.isFollowing(currentUserId, id) ? "Unfollow" : "Follow");
+        };
+        updateFollow.run();
+        follow.setEnabled(id != currentUserId);
+        follow.addActionListener(e -> {
+            if (store.isFollowing(currentUserId, id)) store.unfollow(currentUserId, id); else store.follow(currentUserId, id);
+            updateFollow.run();
+        });
+        followersBtn.addActionListener(e -> {
+            JList<String> list = new JList<>(store.followers(id).toArray(new String[0]));
+            JScrollPane sp = new JScrollPane(list); sp.setPreferredSize(new Dimension(240, 300));
+            JOptionPane.showMessageDialog(d, sp, "Followers of @"+sel, JOptionPane.PLAIN_MESSAGE);
+        });
+        p.add(top, BorderLayout.NORTH);
+
+        JPanel grid = new JPanel(new GridLayout(0,3,8,8));
+        List<AsyncImageLoader.Ticket> tickets = new ArrayList<>();
+        int[] before = {0};
+        boolean[] exhausted = {false};
+        Runnable loadMore = () -> {
+            if (exhausted[0]) return;
+            List<PostItem> page = store.fetchPostsByUser(id, before[0], PROFILE_PAGE);
+            if (page.size() < PROFILE_PAGE) exhausted[0] = true;
+            for (PostItem pi : page) grid.add(profileCard(pi, tickets));
+            if (!page.isEmpty()) before[0] = page.get(page.size() - 1).postId;
+            grid.revalidate();
+        };
+        loadMore.run();
+        JScrollPane scroll = new JScrollPane(grid);
+        scroll.getVerticalScrollBar().setUnitIncrement(16);
+        // next page once the user scrolls near the end; also fires after a page is laid out, until the view is full
+        scroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            BoundedRangeModel m = ((JScrollBar) e.getAdjustable()).getModel();
+            if (m.getValue() + m.getExtent() >= m.getMaximum() - 200) loadMore.run();
+        });
+        p.add(scroll, BorderLayout.CENTER);
+        d.add(p);
+        d.setVisible(true);
+        // modal: we get here once the dialog is closed, so anything still loading is no longer wanted
+        tickets.forEach(AsyncImageLoader.Ticket::cancel);
+    }
+
+    private static final int PROFILE_PAGE = 30; // ten grid rows
+
+    /** One profile grid cell; its thumbnail loads in the background and the ticket goes to tickets. */
+    private JPanel profileCard(PostItem pi, List<AsyncImageLoader.Ticket> tickets) {
+        JPanel card = new JPanel(new BorderLayout());
+        card.setBorder(new EmptyBorder(4,4,4,4));
+        if (pi.imageFilename!=null && !pi.imageFilename.isEmpty()) {
+            File src = new File("posts_images", pi.imageFilename);
+            BufferedImage thumb = ThumbnailCache.SHARED.peek(src, 220, 220);
+            JLabel pic = new JLabel(new ImageIcon(thumb != null ? thumb : ImageUtils.placeholder(220, 220))); pic.setHorizontalAlignment(SwingConstants.CENTER);
+            if (thumb == null) tickets.add(AsyncImageLoader.SHARED.request(src, 220, 220, img -> {
+                if (img != null) pic.setIcon(new ImageIcon(img)); else { pic.setIcon(null); pic.setText(pi.content); }
+            }));
+            pic.addMouseListener(new MouseAdapter() {
+                public void mouseClicked(MouseEvent e) { showImageModal(src, pi); }
+                public void mouseEntered(MouseEvent e) { showHover(src, e); }
+                public void mouseExited(MouseEvent e) { hideHover(); }
+            });
+            card.add(pic, BorderLayout.CENTER);
+        } else {
+            JTextArea ta = new JTextArea(pi.content); ta.setLineWrap(true); ta.setWrapStyleWord(true); ta.setEditable(false); card.add(new JScrollPane(ta), BorderLayout.CENTER);
+        }
+        card.add(new JLabel("Likes: "+pi.likes+"  Comments: "+pi.comments), BorderLayout.SOUTH);
+        return card;
+    }
+
+    private void showImageModal(File src, PostItem pi) {
+        AsyncImageLoader.SHARED.request(src, 560, 560, img -> { if (img != null) openImageModal(img, pi); });
+    }
+
+    private void openImageModal(BufferedImage img, PostItem pi) {
+        JDialog dlg = new JDialog(this, "Post by @"+pi.username, true);
+        dlg.setSize(600,600); dlg.setLocationRelativeTo(this);
+        JLabel lab = new JLabel(new ImageIcon(img));
+        JTextArea caption = new JTextArea(pi.content); caption.setEditable(false); caption.setLineWrap(true);
+        dlg.add(new JScrollPane(lab), BorderLayout.CENTER);
+        dlg.add(new JScrollPane(caption), BorderLayout.SOUTH);
+        dlg.setVisible(true);
+    }
+
+    private void showHover(File src, MouseEvent e) {
+        hoverSource = src;
+        Point p = e.getLocationOnScreen();
+        // only show the preview if the pointer is still on the same image when the decode finishes
+        AsyncImageLoader.SHARED.request(src, 320, 320, img -> { if (img != null && src.equals(hoverSource)) displayHover(img, p); });
+    }
+    private void displayHover(BufferedImage img, Point p) {
+        try {
+            hoverLabel.setIcon(new ImageIcon(img));
+            hoverWindow.setSize(340,340);
+            hoverWindow.setLocation(p.x+15, p.y+15);
+            hoverWindow.setVisible(true);
+        } catch (Exception ex) { /* ignore */ }
+    }
+    private void hideHover() { hoverSource = null; hoverWindow.setVisible(false); }
+
+    private static final int SEARCH_PAGE = 50;
+
+    private void doSearch(String term) {
+        if (term==null||term.trim().isEmpty()) { syncUsers(store.allUsernames()); return; }
+        usersFiltered = true;
+        usersModel.clear(); store.searchUsers(term, 0, 500).forEach(usersModel::addElement);
+    }
+
+    private void doSearchPosts(String term) {
+        if (term == null || term.trim().isEmpty()) { JOptionPane.showMessageDialog(this, "Enter words or #hashtags to search for"); return; }
+        JDialog d = new JDialog(this, "Posts matching \"" + term.trim() + "\"", true);
+        d.setSize(640, 600); d.setLocationRelativeTo(this);
+        DefaultListModel<PostItem> results = new DefaultListModel<>();
+        JList<PostItem> list = new JList<>(results);
+        list.setCellRenderer(new PostRenderer());
+        JButton more = new JButton("More");
+        Runnable nextPage = () -> {
+            List<PostItem> page = store.searchPosts(term, results.size(), SEARCH_PAGE);
+            page.forEach(results::addElement);
+            more.setEnabled(page.size() == SEARCH_PAGE);
+        };
+        more.addActionListener(e -> nextPage.run());
+        nextPage.run();
+        if (results.isEmpty()) { JOptionPane.showMessageDialog(this, "No posts found"); return; }
+        d.add(new JScrollPane(list), BorderLayout.CENTER);
+        d.add(more, BorderLayout.SOUTH);
+        d.setVisible(true);
+    }
+
+    // Full re-read for login and the Refresh button; both lists are diffed, so only changed rows repaint.
+    // Everything else arrives as store change events.
+    private void refreshHome() {
+        welcomeLabel.setText("Welcome @" + currentUsername + " (ID:" + currentUserId + ")");
+        syncUsers(store.allUsernames());
+        refreshTimeline();
+    }
+
+    /** Re-reads as many timeline rows as are loaded and applies the difference. */
+    private void refreshTimeline() {
+        if (currentUserId == -1) return;
+        int n = Math.max(TIMELINE_PAGE, timelineModel.getSize());
+        List<PostItem> fresh = store.fetchTimelinePage(currentUserId, 0, n);
+        for (PostItem pi : fresh) pi.liked = store.hasLiked(pi.postId, currentUserId);
+        timelineExhausted = fresh.size() < n;
+        timelineModel.apply(fresh);
+    }
+
+    private void loadMoreTimeline() {
+        if (timelineExhausted || currentUserId == -1) return;
+        int before = timelineModel.isEmpty() ? 0 : timelineModel.last().postId;
+        List<PostItem> page = store.fetchTimelinePage(currentUserId, before, TIMELINE_PAGE);
+        if (page.size() < TIMELINE_PAGE) timelineExhausted = true;
+        for (PostItem pi : page) pi.liked = store.hasLiked(pi.postId, currentUserId);
+        timelineModel.append(page);
+    }
+
+    private void onPostAdded(PostItem post) {
+        if (currentUserId == -1 || (post.userId != currentUserId && !store.isFollowing(currentUserId, post.userId))) return;
+        // a post older than the loaded rows arrives with paging; inserting it now would make the next page skip posts
+        if (timelineExhausted || (!timelineModel.isEmpty() && post.postId > timelineModel.last().postId)) timelineModel.insert(post);
+    }
+
+    /** Makes the users list equal to names (sorted) by inserting and removing single rows. */
+    private void syncUsers(List<String> names) {
+        usersFiltered = false;
+        int i = 0;
+        for (String name : names) {
+            while (i < usersModel.size() && usersModel.get(i).compareTo(name) < 0) usersModel.remove(i);
+            if (i < usersModel.size() && usersModel.get(i).equals(name)) i++;
+            else usersModel.add(i++, name);
+        }
+        if (i < usersModel.size()) usersModel.removeRange(i, usersModel.size() - 1);
+    }
+
+    private void insertUser(String name) {
+        int lo = 0, hi = usersModel.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (usersModel.get(mid).compareTo(name) < 0) lo = mid + 1; else hi = mid;
+        }
+        if (lo == usersModel.size() || !usersModel.get(lo).equals(name)) usersModel.add(lo, name);
+    }
+
+    private void toggleTheme() { dark = !dark; Color bg = dark? new Color(28,28,30): new Color(250,250,250); Color fg = dark? Color.WHITE: Color.DARK_GRAY; getContentPane().setBackground(bg); SwingUtilities.invokeLater(() -> updateComponentTreeUI(this, bg, fg)); }
+    private void updateComponentTreeUI(Component comp, Color bg, Color fg) { comp.setBackground(bg); comp.setForeground(fg); if (comp instanceof Container) for (Component c : ((Container) comp).getComponents()) updateComponentTreeUI(c, bg, fg); repaint(); }
+
+    /** Exports users, posts and follows into ./export in the background; the admin panel stays usable meanwhile. */
+    private void exportData(DataExporter.Format format, JButton export, JProgressBar progress, JButton cancel) {
+        DataExporter exporter = new DataExporter(new File("."), store);
+        File out = new File("export");
+        SwingWorker<Long, Void> worker = new SwingWorker<Long, Void>() {
+            protected Long doInBackground() throws IOException {
+                return exporter.export(out, format, (done, total) -> setProgress(total == 0 ? 100 : (int) (done * 100 / total)));
+            }
+            protected void done() {
+                export.setEnabled(true); progress.setVisible(false); cancel.setVisible(false);
+                try {
+                    JOptionPane.showMessageDialog(SocialMediaAppFull.this, "Exported " + get() + " rows to " + out.getAbsolutePath());
+                } catch (InterruptedException | ExecutionException ex) {
+                    if (ex.getCause() instanceof InterruptedIOException) return; // cancelled
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(SocialMediaAppFull.this, "Export failed: " + ex.getCause().getMessage());
+                }
+            }
+        };
+        worker.addPropertyChangeListener(e -> { if ("progress".equals(e.getPropertyName())) progress.setValue((Integer) e.getNewValue()); });
+        for (ActionListener l : cancel.getActionListeners()) cancel.removeActionListener(l);
+        cancel.addActionListener(e -> exporter.cancel());
+        export.setEnabled(false); progress.setValue(0); progress.setVisible(true); cancel.setVisible(true);
+        progress.getParent().revalidate();
+        worker.execute();
+    }
+
+    // Avatar chooser for current user
+    private void chooseAvatar() {
+        if (currentUserId==-1) { JOptionPane.showMessageDialog(this, "Login first"); return; }
+        JFileChooser fc = new JFileChooser();
+        fc.setFileFilter(new FileNameExtensionFilter("Images", ImageIO.getReaderFileSuffixes()));
+        int r = fc.showOpenDialog(this);
+        if (r == JFileChooser.APPROVE_OPTION) {
+            File chosen = fc.getSelectedFile();
+            try {
+                String destName = System.currentTimeMillis() + "_" + chosen.getName();
+                File dest = new File("avatars", destName);
+                ImageIngest.ingest(chosen, dest, ImageIngest.AVATAR_SIZES, true);
+                store.setAvatar(currentUserId, destName);
+                JOptionPane.showMessageDialog(this, "Avatar set!");
+            } catch (IOException ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(this, "Avatar set failed: "+ex.getMessage()); }
+        }
+    }
+
+    // PostItem & renderer
+    static class PostItem {
+        int postId, userId; String username, content, createdAt; int likes, comments; String imageFilename;
+        boolean liked; // by the viewing user; set by the timeline
+        PostItem(int postId, int userId, String username, String content, String createdAt, int likes, int comments, String imageFilename) { this.postId = postId; this.userId = userId; this.username = username; this.content = content; this.createdAt = createdAt; this.likes = likes; this.comments = comments; this.imageFilename = imageFilename; }
+        public String toString() { return "@"+username+": "+(content.length()>60?content.substring(0,60)+"...":content); }
+    }
+
+    /** Timeline rows, newest (highest post id) first. Every change fires an event for just the rows it touched. */
+    static class TimelineModel extends AbstractListModel<PostItem> {
+        private static final long serialVersionUID = 1L;
+        private final List<PostItem> rows = new ArrayList<>();
+
+        @Override public int getSize() { return rows.size(); }
+        @Override public PostItem getElementAt(int i) { return rows.get(i); }
+        boolean isEmpty() { return rows.isEmpty(); }
+        PostItem last() { return rows.get(rows.size() - 1); }
+
+        /** Adds a page of older posts below the loaded ones. */
+        void append(List<PostItem> page) {
+            if (page.isEmpty()) return;
+            int from = rows.size();
+            rows.addAll(page);
+            fireIntervalAdded(this, from, rows.size() - 1);
+        }
+
+        void insert(PostItem post) {
+            int i = indexOf(post.postId);
+            if (i >= 0) return;
+            i = -i - 1;
+            rows.add(i, post);
+            fireIntervalAdded(this, i, i);
+        }
+
+        /** Updates one post's counters in place; nothing repaints if the post isn't loaded or nothing changed. */
+        void updateCounts(int postId, int likes, int comments, boolean liked) {
+            int i = indexOf(postId);
+            if (i < 0) return;
+            PostItem p = rows.get(i);
+            if (p.likes == likes && p.comments == comments && p.liked == liked) return;
+            p.likes = likes; p.comments = comments; p.liked = liked;
+            fireContentsChanged(this, i, i);
+        }
+
+        /** Makes the rows equal to fresh (newest first) with per-row inserts, removals and changes. */
+        void apply(List<PostItem> fresh) {
+            int i = 0;
+            for (PostItem f : fresh) {
+                // rows newer than f that fresh no longer has (e.g. after an unfollow)
+                while (i < rows.size() && rows.get(i).postId > f.postId) {
+                    rows.remove(i);
+                    fireIntervalRemoved(this, i, i);
+                }
+                if (i < rows.size() && rows.get(i).postId == f.postId) {
+                    if (!sameRow(rows.get(i), f)) {
+                        rows.set(i, f);
+                        fireContentsChanged(this, i, i);
+                    }
+                } else {
+                    rows.add(i, f);
+                    fireIntervalAdded(this, i, i);
+                }
+                i++;
+            }
+            if (i < rows.size()) {
+                int end = rows.size() - 1;
+                rows.subList(i, rows.size()).clear();
+                fireIntervalRemoved(this, i, end);
+            }
+        }
+
+        private static boolean sameRow(PostItem a, PostItem b) {
+            return a.likes == b.likes && a.comments == b.comments && a.liked == b.liked
+                    && a.username.equals(b.username) && a.content.equals(b.content) && Objects.equals(a.imageFilename, b.imageFilename);
+        }
 
-    private JLabel welcomeLabel = new JLabel();
-    private DefaultListModel<PostItem> timelineModel = new DefaultListModel<>();
-    private JList<PostItem> timelineList = new JList<>(timelineModel);
-    private JTextArea newPostArea = new JTextArea(3, 30);
-    private DefaultListModel<String> usersModel = new DefaultListModel<>();
-    private JList<String> usersList = new JList<>(usersModel);
+        /** Row holding postId, or -(insertion point) - 1. */
+        private int indexOf(int postId) {
+            int lo = 0, hi = rows.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int v = rows.get(mid).postId;
+                if (v == postId) return mid;
+                if (v > postId) lo = mid + 1; else hi = mid;
+            }
+            return -lo - 1;
+        }
+    }
 
-    private int currentUserId = -1;
-    private String currentUsername = null;
-    private boolean dark = false;
+    static class PostRenderer extends JPanel implements ListCellRenderer<PostItem> {
+        // post id -> in-flight thumbnail decode; not the row index, which shifts when posts are inserted above. EDT only
+        private final Map<Integer, AsyncImageLoader.Ticket> pending = new HashMap<>();
+        private JLabel top = new JLabel();
+        private JTextArea body = new JTextArea();
+        private JLabel meta = new JLabel();
+        private JLabel pic = new JLabel();
+        public PostRenderer() {
+            setLayout(new BorderLayout());
+            top.setFont(new Font("SansSerif", Font.BOLD, 13));
+            body.setLineWrap(true); body.setWrapStyleWord(true); body.setEditable(false);
+            meta.setFont(new Font("SansSerif", Font.PLAIN, 11));
+            add(top, BorderLayout.NORTH); add(body, BorderLayout.CENTER); add(meta, BorderLayout.SOUTH);
+            // always present; hidden for text-only posts, which BorderLayout then ignores
+            pic.setVisible(false);
+            add(pic, BorderLayout.EAST);
+            setBorder(new EmptyBorder(8,8,8,8));
+        }
+        private static final Metrics.Op RENDER = Metrics.op("render.postCell");
 
-    // hover zoom window
-    private final JWindow hoverWindow = new JWindow();
-    private final JLabel hoverLabel = new JLabel();
+        public Component getListCellRendererComponent(JList<? extends PostItem> list, PostItem value, int index, boolean isSelected, boolean cellHasFocus) {
+            long start = Metrics.start();
+            try {
+                return configureCell(list, value, index, isSelected);
+            } finally {
+                RENDER.record(start);
+            }
+        }
 
-    public SocialMediaAppFull() {
-        setTitle("SocialMediaApp - AURA GOD MODE");
-        setSize(1100, 750);
-        setDefaultCloseOperation(EXIT_ON_CLOSE);
-        setLocationRelativeTo(null);
+        private Component configureCell(JList<? extends PostItem> list, PostItem value, int index, boolean isSelected) {
+            configure(value);
+            if (hasImage(value)) {
+                File src = new File("posts_images", value.imageFilename);
+                BufferedImage thumb = ThumbnailCache.SHARED.peek(src, 140, 140);
+                if (thumb == null && !AsyncImageLoader.SHARED.isFailed(src, 140, 140)) {
+                    requestRow(list, value.postId, src);
+                    thumb = ImageUtils.placeholder(140, 140);
+                }
+                pic.setIcon(thumb == null ? null : new ImageIcon(thumb));
+            }
+            setBackground(isSelected ? new Color(230,230,250) : Color.WHITE);
+            return this;
+        }
 
-        store = new CSVStore();
-        if (!store.init()) { JOptionPane.showMessageDialog(this, "Storage init failed"); System.exit(1); }
+        private void configure(PostItem value) {
+            top.setText("@" + value.username + " (ID:" + value.userId + ")");
+            body.setText(value.content);
+            meta.setText("At: " + value.createdAt + " | Likes: " + value.likes + (value.liked ? " (you)" : "") + " | Comments: " + value.comments);
+            pic.setVisible(hasImage(value));
+            if (!pic.isVisible()) pic.setIcon(null);
+        }
+
+        private static boolean hasImage(PostItem value) { return value.imageFilename != null && !value.imageFilename.isEmpty(); }
 
-        if (store.allUsernames().isEmpty()) {
-            store.createUser("john","123");
-            store.createUser("jane","456");
-            store.createUser("admin","admin");
-            int j = store.getUserId("john"); int ja = store.getUserId("jane");
-            store.addPost(j, "Hello from John! #welcome", "");
-            store.addPost(ja, "Jane's first post :)", "");
+        /** Height of the cell for value at the given width, with text wrapped as it will be painted; starts no image decode. */
+        int measure(PostItem value, int width) {
+            configure(value);
+            // the thumbnail is always 140x140 once loaded, and the placeholder is the same size
+            if (pic.isVisible()) pic.setIcon(new ImageIcon(ImageUtils.placeholder(140, 140)));
+            Insets in = getInsets();
+            int textWidth = width - in.left - in.right - (pic.isVisible() ? pic.getPreferredSize().width : 0);
+            body.setSize(Math.max(textWidth, 1), Short.MAX_VALUE); // a wrapping text area reports its height for its current width
+            return getPreferredSize().height;
         }
 
-        hoverWindow.getContentPane().add(hoverLabel);
-        hoverWindow.setAlwaysOnTop(true);
+        /** Cell height for rows without an image whose text fits on one line; the fixed-size mode uses the image height. */
+        int fixedHeight() {
+            return measure(new PostItem(0, 0, "prototype", "prototype", "0000-00-00 00:00:00", 0, 0, "prototype.png"), 400);
+        }
 
-        root.add(loginPanel(), "login");
-        root.add(registerPanel(), "register");
-        root.add(homePanel(), "home");
-        root.add(adminPanel(), "admin");
+        /** Starts a background decode for the post's thumbnail; when it lands only the post's row, wherever it is now, is repainted. */
+        private void requestRow(JList<? extends PostItem> list, int postId, File src) {
+            AsyncImageLoader.Ticket t = pending.get(postId);
+            if (t != null && !t.isCancelled() && t.source().equals(src)) return;
+            if (t != null) t.cancel();
+            pending.put(postId, AsyncImageLoader.SHARED.request(src, 140, 140, img -> {
+                AsyncImageLoader.Ticket done = pending.get(postId);
+                if (done != null && done.source().equals(src)) pending.remove(postId);
+                // only a visible row needs the repaint; one scrolled away picks the image up from the cache when painted
+                int first = list.getFirstVisibleIndex(), last = list.getLastVisibleIndex();
+                for (int i = Math.max(first, 0); i <= last && i < list.getModel().getSize(); i++) {
+                    if (list.getModel().getElementAt(i).postId != postId) continue;
+                    Rectangle r = list.getCellBounds(i, i);
+                    if (r != null) list.repaint(r);
+                    break;
+                }
+            }));
+        }
 
-        add(root);
-        cards.show(root, "login");
-        setVisible(true);
+        /** Drops pending decodes for posts that have scrolled out of view. */
+        void cancelOffscreen(JList<? extends PostItem> list) {
+            int first = list.getFirstVisibleIndex(), last = list.getLastVisibleIndex();
+            Set<Integer> visible = new HashSet<>();
+            for (int i = Math.max(first, 0); i <= last && i < list.getModel().getSize(); i++) visible.add(list.getModel().getElementAt(i).postId);
+            pending.entrySet().removeIf(e -> {
+                if (visible.contains(e.getKey())) return false;
+                e.getValue().cancel();
+                return true;
+            });
+        }
     }
 
-    private JPanel loginPanel() {
-        JPanel p = new JPanel(new GridBagLayout());
-        p.setBorder(new EmptyBorder(20,20,20,20));
-        GridBagConstraints c = new GridBagConstraints();
-        c.insets = new Insets(6,6,6,6);
-        c.gridx = 0; c.gridy = 0;
-        JLabel title = new JLabel("Welcome — Login");
-        title.setFont(new Font("Inter", Font.BOLD, 22));
-        p.add(title, c);
+    // --- Timeline list UI: cached row heights; rows are estimated until first painted, so layout cost doesn't grow with the list ---
+    static class CachedHeightListUI extends BasicListUI {
+        private final PostRenderer measurer;
+        // measured heights at measuredWidth; PostItem has identity equality, so a replaced row is measured afresh
+        private final Map<PostItem, Integer> heights = new WeakHashMap<>();
+        private int measuredWidth = -1;
+        private int chrome = -1, lineHeight, charWidth; // for estimates, at measuredWidth
+        private boolean relayoutQueued;
 
-        c.gridy++; p.add(new JLabel("Username:"), c); c.gridx = 1; p.add(loginUser, c);
-        c.gridx = 0; c.gridy++; p.add(new JLabel("Password:"), c); c.gridx = 1; p.add(loginPass, c);
+        /** measurer must be a renderer instance that is not painting rows, since measuring reconfigures it. */
+        CachedHeightListUI(PostRenderer measurer) { this.measurer = measurer; }
 
-        c.gridx = 0; c.gridy++; JButton loginBtn = new JButton("Login"); p.add(loginBtn, c);
-        c.gridx = 1; JButton gotoReg = new JButton("Register"); p.add(gotoReg, c);
+        private final ComponentAdapter resizeHandler = new ComponentAdapter() {
+            @Override public void componentResized(ComponentEvent e) {
+                // wrapped heights depend on the width the list tracks from its viewport
+                if (rowWidth() != measuredWidth) { list.revalidate(); list.repaint(); }
+            }
+        };
 
-        loginBtn.addActionListener(e -> doLogin());
-        gotoReg.addActionListener(e -> cards.show(root, "register"));
+        @Override
+        protected void installListeners() { super.installListeners(); list.addComponentListener(resizeHandler); }
 
-        return p;
+        @Override
+        protected void uninstallListeners() { list.removeComponentListener(resizeHandler); super.uninstallListeners(); }
+
+        @Override
+        protected void maybeUpdateLayoutState() {
+            if (rowWidth() != measuredWidth) updateLayoutStateNeeded |= modelChanged;
+            super.maybeUpdateLayoutState();
+        }
+
+        @Override
+        protected void updateLayoutState() {
+            if (list.getFixedCellHeight() != -1 || list.getLayoutOrientation() != JList.VERTICAL) {
+                super.updateLayoutState();
+                return;
+            }
+            int width = rowWidth();
+            if (width != measuredWidth) {
+                heights.clear();
+                measuredWidth = width;
+                chrome = -1;
+            }
+            ListModel<?> model = list.getModel();
+            int n = model.getSize();
+            // no renderer call per row: measured heights come from the cache, the rest are estimated
+            cellHeights = new int[n];
+            for (int i = 0; i < n; i++) {
+                Object v = model.getElementAt(i);
+                Integer h = heights.get(v);
+                cellHeights[i] = h != null ? h : v instanceof PostItem ? estimate((PostItem) v) : 20;
+            }
+            cellHeight = -1;
+            cellWidth = list.getFixedCellWidth() != -1 ? list.getFixedCellWidth() : 0; // 0: the list follows the viewport width
+        }
+
+        @Override
+        protected void paintCell(Graphics g, int row, Rectangle rowBounds, ListCellRenderer<Object> cellRenderer,
+                                 ListModel<Object> dataModel, ListSelectionModel selModel, int leadIndex) {
+            Object v = dataModel.getElementAt(row);
+            if (v instanceof PostItem && rowBounds.width == measuredWidth && !heights.containsKey(v)) {
+                int h = measurer.measure((PostItem) v, measuredWidth);
+                heights.put((PostItem) v, h);
+                if (h != rowBounds.height) queueRelayout();
+            }
+            super.paintCell(g, row, rowBounds, cellRenderer, dataModel, selModel, leadIndex);
+        }
+
+        // estimates are corrected once per paint pass rather than per row
+        private void queueRelayout() {
+            if (relayoutQueued) return;
+            relayoutQueued = true;
+            SwingUtilities.invokeLater(() -> {
+                relayoutQueued = false;
+                updateLayoutStateNeeded |= modelChanged;
+                list.revalidate();
+                list.repaint();
+            });
+        }
+
+        private int rowWidth() {
+            Insets in = list.getInsets();
+            Container parent = list.getParent();
+            int w = parent instanceof JViewport ? parent.getWidth() : list.getWidth();
+            return w <= 0 ? 400 : Math.max(1, w - in.left - in.right); // not yet laid out: estimate at a typical width
+        }
+
+        private int estimate(PostItem p) {
+            if (chrome < 0) {
+                chrome = measurer.measure(new PostItem(0, 0, "x", "", "x", 0, 0, ""), Math.max(measuredWidth, 1));
+                FontMetrics fm = measurer.body.getFontMetrics(measurer.body.getFont());
+                lineHeight = fm.getHeight();
+                charWidth = Math.max(1, fm.charWidth('n'));
+            }
+            int textWidth = Math.max(1, measuredWidth - 16 - (PostRenderer.hasImage(p) ? 140 : 0));
+            int lines = 1 + p.content.length() * charWidth / textWidth;
+            int h = chrome + (lines - 1) * lineHeight;
+            return PostRenderer.hasImage(p) ? Math.max(h, 140 + 16 + 2 * lineHeight) : h;
+        }
     }
 
-    private JPanel registerPanel() {
-        JPanel p = new JPanel(new GridBagLayout());
-        p.setBorder(new EmptyBorder(20,20,20,20));
-        GridBagConstraints c = new GridBagConstraints();
-        c.insets = new Insets(6,6,6,6);
-        c.gridx = 0; c.gridy = 0;
-        JLabel title = new JLabel("Create account");
-        title.setFont(new Font("Inter", Font.BOLD, 22));
-        p.add(title, c);
+    // --- Shared thumbnail cache: pre-scaled images keyed by (file, width, height) ---
+    static class ThumbnailCache {
+        static final ThumbnailCache SHARED = new ThumbnailCache(Long.getLong("social.thumbnailCacheBytes", 64L << 20));
+        private static final Metrics.Op DECODE = Metrics.op("image.decode"); // read and scale on a cache miss
 
-        c.gridy++; p.add(new JLabel("Username:"), c); c.gridx = 1; p.add(regUser, c);
-        c.gridx = 0; c.gridy++; p.add(new JLabel("Password:"), c); c.gridx = 1; p.add(regPass, c);
+        static final class Key {
+            final String path; final int w, h;
+            Key(String path, int w, int h) { this.path = path; this.w = w; this.h = h; }
+            @Override public boolean equals(Object o) {
+                if (!(o instanceof Key)) return false;
+                Key k = (Key) o;
+                return w == k.w && h == k.h && path.equals(k.path);
+            }
+            @Override public int hashCode() { return (path.hashCode() * 31 + w) * 31 + h; }
+        }
 
-        c.gridx = 0; c.gridy++; JButton create = new JButton("Create"); p.add(create, c);
-        c.gridx = 1; JButton back = new JButton("Back"); p.add(back, c);
+        private final long maxBytes;
+        private long bytes;
+        // strongly held entries in LRU order, bounded by pixel bytes
+        private final LinkedHashMap<Key, BufferedImage> lru = new LinkedHashMap<>(64, 0.75f, true);
+        // entries evicted from the LRU stay reachable until the GC needs the memory
+        private final Map<Key, SoftReference<BufferedImage>> soft = new HashMap<>();
+        private final ReferenceQueue<BufferedImage> cleared = new ReferenceQueue<>();
 
-        create.addActionListener(e -> doRegister());
-        back.addActionListener(e -> cards.show(root, "login"));
-        return p;
+        ThumbnailCache(long maxBytes) { this.maxBytes = maxBytes; }
+
+        /** Returns the scaled image, decoding and scaling the source on a miss; null if the file can't be read. */
+        BufferedImage get(File source, int w, int h) {
+            Key key = new Key(source.getPath(), w, h);
+            BufferedImage img = peek(key);
+            if (img != null) return img;
+            long start = Metrics.start();
+            File file = ImageIngest.variantFor(source, w, h, false);
+            BufferedImage full = decode(file);
+            // a variant that can't be decoded is no reason to show a placeholder while the original is fine
+            if (full == null && !file.equals(source)) full = decode(file = source);
+            if (full == null) { DECODE.record(start, false); return null; }
+            img = ImageUtils.scale(full, w, h);
+            DECODE.record(start);
+            DECODE.read(file.length());
+            put(key, img);
+            return img;
+        }
+
+        private static BufferedImage decode(File f) {
+            try {
+                return ImageIO.read(f);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        BufferedImage peek(File source, int w, int h) { return peek(new Key(source.getPath(), w, h)); }
+
+        synchronized BufferedImage peek(Key key) {
+            BufferedImage img = lru.get(key);
+            if (img != null) return img;
+            SoftReference<BufferedImage> ref = soft.remove(key);
+            img = ref == null ? null : ref.get();
+            if (img != null) put(key, img);
+            return img;
+        }
+
+        synchronized void put(Key key, BufferedImage img) {
+            BufferedImage old = lru.put(key, img);
+            if (old != null) bytes -= weight(old);
+            bytes += weight(img);
+            Iterator<Map.Entry<Key, BufferedImage>> it = lru.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Map.Entry<Key, BufferedImage> eldest = it.next();
+                if (eldest.getKey().equals(key)) continue;
+                bytes -= weight(eldest.getValue());
+                soft.put(eldest.getKey(), new SoftReference<>(eldest.getValue(), cleared));
+                it.remove();
+            }
+            purgeCleared();
+        }
+
+        synchronized void invalidate(File source) {
+            String path = source.getPath();
+            lru.entrySet().removeIf(e -> {
+                if (!e.getKey().path.equals(path)) return false;
+                bytes -= weight(e.getValue());
+                return true;
+            });
+            soft.keySet().removeIf(k -> k.path.equals(path));
+        }
+
+        synchronized long sizeBytes() { return bytes; }
+
+        private void purgeCleared() {
+            if (cleared.poll() == null) return;
+            while (cleared.poll() != null) { /* drain */ }
+            soft.values().removeIf(r -> r.get() == null);
+        }
+
+        static long weight(BufferedImage img) {
+            return (long) img.getWidth() * img.getHeight() * 4;
+        }
     }
 
-    private JPanel homePanel() {
-        JPanel outer = new JPanel(new BorderLayout());
-        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        welcomeLabel.setFont(new Font("SansSerif", Font.BOLD, 16));
-        top.add(welcomeLabel);
-        JButton avatarBtn = new JButton("Set Avatar"); top.add(avatarBtn);
-        JButton logout = new JButton("Logout"); top.add(logout);
-        JButton adminBtn = new JButton("Admin"); top.add(adminBtn);
-        JButton theme = new JButton("Toggle Theme"); top.add(theme);
-        JButton refresh = new JButton("Refresh"); top.add(refresh);
+    // --- Background image decoding: bounded worker pool, deduplicated requests, results delivered on the EDT ---
+    static class AsyncImageLoader {
+        static final AsyncImageLoader SHARED = new AsyncImageLoader(ThumbnailCache.SHARED,
+                Integer.getInteger("social.imageThreads", Math.max(2, Runtime.getRuntime().availableProcessors() / 2)), 256);
 
-        avatarBtn.addActionListener(e -> chooseAvatar());
-        logout.addActionListener(e -> { currentUserId = -1; currentUsername = null; cards.show(root, "login"); });
-        adminBtn.addActionListener(e -> cards.show(root, "admin"));
-        theme.addActionListener(e -> toggleTheme());
-        refresh.addActionListener(e -> refreshHome());
+        /** One caller's interest in a load. Cancelling drops its callback, and the decode itself if nobody else wants it. */
+        final class Ticket {
+            private final Request req;
+            private final Consumer<BufferedImage> onEdt;
+            private volatile boolean cancelled;
+            Ticket(Request req, Consumer<BufferedImage> onEdt) { this.req = req; this.onEdt = onEdt; }
+            File source() { return req.source; }
+            boolean isCancelled() { return cancelled; }
+            void cancel() {
+                if (cancelled) return;
+                cancelled = true;
+                AsyncImageLoader.this.cancel(this);
+            }
+        }
 
-        outer.add(top, BorderLayout.NORTH);
+        private final class Request implements Runnable {
+            final ThumbnailCache.Key key; final File source;
+            final List<Ticket> waiting = new ArrayList<>(2); // guarded by the loader
+            Request(ThumbnailCache.Key key, File source) { this.key = key; this.source = source; }
+            public void run() {
+                BufferedImage img = cache.get(source, key.w, key.h);
+                complete(this, img);
+            }
+        }
 
-        JSplitPane center = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
-        center.setDividerLocation(700);
+        private final ThumbnailCache cache;
+        private final ThreadPoolExecutor pool;
+        private final Map<ThumbnailCache.Key, Request> inFlight = new HashMap<>();
 
-        JPanel timelinePanel = new JPanel(new BorderLayout());
-        timelinePanel.setBorder(new EmptyBorder(8,8,8,8));
-        JLabel tlabel = new JLabel("Timeline"); tlabel.setFont(new Font("SansSerif", Font.BOLD, 18)); timelinePanel.add(tlabel, BorderLayout.NORTH);
-        timelineList.setCellRenderer(new PostRenderer());
-        JScrollPane tlScroll = new JScrollPane(timelineList);
-        timelinePanel.add(tlScroll, BorderLayout.CENTER);
+        // a failed decode is retried once the file changes or social.image.retryMillis passes, e.g. one that raced an upload
+        private static final long RETRY_MILLIS = Long.getLong("social.image.retryMillis", 10_000);
+        private static final class Failure {
+            final long modified, at;
+            Failure(long modified, long at) { this.modified = modified; this.at = at; }
+        }
+        private final Map<ThumbnailCache.Key, Failure> failed = new ConcurrentHashMap<>();
 
-        JPanel composer = new JPanel(new BorderLayout());
-        composer.setBorder(new EmptyBorder(6,6,6,6));
-        newPostArea.setLineWrap(true); newPostArea.setWrapStyleWord(true);
-        composer.add(new JScrollPane(newPostArea), BorderLayout.CENTER);
-        JPanel act = new JPanel();
-        JButton imgBtn = new JButton("Attach Image"); act.add(imgBtn);
-        JButton postBtn = new JButton("Post"); act.add(postBtn);
-        JButton likeBtn = new JButton("Like selected"); act.add(likeBtn);
-        JButton commentBtn = new JButton("Comment"); act.add(commentBtn);
-        composer.add(act, BorderLayout.SOUTH);
-        timelinePanel.add(composer, BorderLayout.SOUTH);
+        AsyncImageLoader(ThumbnailCache cache, int threads, int maxQueued) {
+            this.cache = cache;
+            this.pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(maxQueued), r -> {
+                Thread t = new Thread(r, "image-loader");
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }, (r, executor) -> {
+                // queue full: the oldest request is the least likely to still be on screen, so drop it
+                Runnable oldest = executor.getQueue().poll();
+                if (oldest instanceof Request) drop((Request) oldest);
+                executor.execute(r);
+            });
+            pool.allowCoreThreadTimeOut(true);
+        }
 
-        final String[] attachedImage = {null};
-        imgBtn.addActionListener(e -> {
-            JFileChooser fc = new JFileChooser();
-            fc.setFileFilter(new FileNameExtensionFilter("Images", ImageIO.getReaderFileSuffixes()));
-            int r = fc.showOpenDialog(this);
-            if (r == JFileChooser.APPROVE_OPTION) {
-                File chosen = fc.getSelectedFile();
-                try {
-                    String destName = System.currentTimeMillis() + "_" + chosen.getName();
-                    Files.copy(chosen.toPath(), new File("posts_images", destName).toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    attachedImage[0] = destName;
-                    JOptionPane.showMessageDialog(this, "Image attached: " + destName);
-                } catch (IOException ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(this, "Image attach failed: "+ex.getMessage()); }
+        /** Delivers the scaled image (or null if the file can't be decoded) to onEdt on the Swing thread. */
+        Ticket request(File source, int w, int h, Consumer<BufferedImage> onEdt) {
+            ThumbnailCache.Key key = new ThumbnailCache.Key(source.getPath(), w, h);
+            BufferedImage hit = cache.peek(key);
+            Request req;
+            Ticket t;
+            boolean submit = false;
+            synchronized (this) {
+                req = inFlight.get(key);
+                if (req == null && hit == null) {
+                    req = new Request(key, source);
+                    inFlight.put(key, req);
+                    submit = true;
+                }
+                t = new Ticket(req != null ? req : new Request(key, source), onEdt);
+                if (req != null) req.waiting.add(t);
+            }
+            if (hit != null && req == null) SwingUtilities.invokeLater(() -> { if (!t.cancelled) onEdt.accept(hit); });
+            else if (submit) pool.execute(req);
+            return t;
+        }
+
+        /** Whether the last decode of source failed and should not be retried yet; called on the EDT for every painted row. */
+        boolean isFailed(File source, int w, int h) {
+            ThumbnailCache.Key key = new ThumbnailCache.Key(source.getPath(), w, h);
+            Failure f = failed.get(key);
+            if (f == null) return false;
+            if (System.currentTimeMillis() - f.at < RETRY_MILLIS && source.lastModified() == f.modified) return true;
+            failed.remove(key, f);
+            return false;
+        }
+
+        private void complete(Request req, BufferedImage img) {
+            List<Ticket> done;
+            synchronized (this) {
+                inFlight.remove(req.key, req);
+                done = new ArrayList<>(req.waiting);
+                req.waiting.clear();
             }
+            if (img == null) failed.put(req.key, new Failure(req.source.lastModified(), System.currentTimeMillis()));
+            else failed.remove(req.key);
+            SwingUtilities.invokeLater(() -> { for (Ticket t : done) if (!t.cancelled) t.onEdt.accept(img); });
+        }
+
+        private void cancel(Ticket t) {
+            Request req = t.req;
+            synchronized (this) {
+                req.waiting.remove(t);
+                if (!req.waiting.isEmpty() || inFlight.get(req.key) != req) return;
+                inFlight.remove(req.key);
+            }
+            // no-op if a worker already picked it up; the decoded image still lands in the cache
+            pool.remove(req);
+        }
+
+        private synchronized void drop(Request req) {
+            inFlight.remove(req.key, req);
+            for (Ticket t : req.waiting) t.cancelled = true;
+            req.waiting.clear();
+        }
+    }
+
+    // --- Upload-time ingest: pre-sized variants are written next to each original image ---
+    static class ImageIngest {
+        static final int[] POST_SIZES = { 140, 220, 320 }; // timeline, profile grid, hover
+        static final int[] AVATAR_SIZES = { 80 };          // circle avatar, stored cropped to the square it covers
+        private static final int[] ALL_SIZES = { 80, 140, 220, 320 };
+
+        private static final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "image-ingest");
+            t.setDaemon(true);
+            return t;
         });
 
-        postBtn.addActionListener(e -> {
-            store.addPost(currentUserId, newPostArea.getText().trim(), attachedImage[0]);
-            attachedImage[0] = null; newPostArea.setText(""); refreshHome();
-        });
-        likeBtn.addActionListener(e -> doLikeSelected());
-        commentBtn.addActionListener(e -> doCommentSelected());
+        /** Copies the chosen file to dest, then writes its variants in the background. */
+        static void ingest(File chosen, File dest, int[] sizes, boolean cover) throws IOException {
+            Files.copy(chosen.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            worker.execute(() -> writeVariants(dest, sizes, cover));
+        }
+
+        /**
+         * Each variant fits in a size x size box, or with cover fills it exactly (short side scaled to size, the rest
+         * cropped from the centre); opaque images are stored as JPEG, the rest as PNG.
+         */
+        static void writeVariants(File original, int[] sizes, boolean cover) {
+            try {
+                BufferedImage src = ImageIO.read(original);
+                if (src == null) return;
+                boolean alpha = src.getColorModel().hasAlpha();
+                for (int size : sizes) {
+                    // the original is already small enough
+                    if ((cover ? Math.min(src.getWidth(), src.getHeight()) : Math.max(src.getWidth(), src.getHeight())) <= size) continue;
+                    BufferedImage scaled = cover ? ImageUtils.cover(src, size) : ImageUtils.scale(src, size, size);
+                    if (!alpha) scaled = ImageUtils.toOpaque(scaled);
+                    File out = variantFile(original, size, cover, alpha ? "png" : "jpg");
+                    File tmp = new File(out.getPath() + ".tmp");
+                    // readers may probe for the variant at any time, so it only appears once complete
+                    if (ImageIO.write(scaled, alpha ? "png" : "jpg", tmp))
+                        Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    else tmp.delete();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // cover variants get their own name, so a fit-inside one written for the same size is never taken for one
+        static File variantFile(File original, int size, boolean cover, String ext) {
+            return new File(original.getParentFile(), original.getName() + "@" + size + (cover ? "c." : ".") + ext);
+        }
+
+        /** The smallest stored variant that still covers w x h (filling it, with cover), or the original if there is none. */
+        static File variantFor(File original, int w, int h, boolean cover) {
+            int need = Math.max(w, h);
+            for (int size : ALL_SIZES) {
+                if (size < need) continue;
+                File jpg = variantFile(original, size, cover, "jpg");
+                if (jpg.exists()) return jpg;
+                File png = variantFile(original, size, cover, "png");
+                if (png.exists()) return png;
+            }
+            return original;
+        }
+    }
+
+    // --- Image utilities: circular avatars, scaling ---
+    static class ImageUtils {
+        /** Scales to fit inside w x h, keeping the aspect ratio; the result is fully rendered. */
+        static BufferedImage scale(BufferedImage img, int w, int h) {
+            double f = Math.min((double) w / img.getWidth(), (double) h / img.getHeight());
+            return resize(img, Math.max(1, (int) Math.round(img.getWidth() * f)), Math.max(1, (int) Math.round(img.getHeight() * f)));
+        }
+        private static final Map<Long, BufferedImage> placeholders = new HashMap<>();
+        /** Flat grey tile shown while a thumbnail is still loading. */
+        static synchronized BufferedImage placeholder(int w, int h) {
+            return placeholders.computeIfAbsent(((long) w << 32) | h, k -> {
+                BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g2 = img.createGraphics();
+                g2.setColor(new Color(225,225,230)); g2.fillRect(0, 0, w, h);
+                g2.dispose();
+                return img;
+            });
+        }
+        /** Copies onto a white RGB canvas; the JPEG writer rejects images with an alpha channel. */
+        static BufferedImage toOpaque(BufferedImage img) {
+            if (img.getType() == BufferedImage.TYPE_INT_RGB) return img;
+            BufferedImage out = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = out.createGraphics();
+            g2.drawImage(img, 0, 0, Color.WHITE, null);
+            g2.dispose();
+            return out;
+        }
+        /** Scales so the short side is size, then crops the centre to size x size; a stored cover variant is returned as is. */
+        static BufferedImage cover(BufferedImage src, int size) {
+            if (src.getWidth() == size && src.getHeight() == size) return src;
+            double f = Math.max((double) size / src.getWidth(), (double) size / src.getHeight());
+            BufferedImage scaled = resize(src, Math.max(size, (int) Math.round(src.getWidth() * f)), Math.max(size, (int) Math.round(src.getHeight() * f)));
+            BufferedImage out = new BufferedImage(size, size, scaled.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = out.createGraphics();
+            g2.drawImage(scaled, -(scaled.getWidth() - size) / 2, -(scaled.getHeight() - size) / 2, null);
+            g2.dispose();
+            return out;
+        }
+        static Image createCircle(BufferedImage src, int size) {
+            // cover the circle (scale the short side to size) and centre, instead of stretching
+            BufferedImage scaled = cover(src, size);
+            BufferedImage out = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = out.createGraphics();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            Shape circle = new Ellipse2D.Float(0,0,size,size);
+            g2.setClip(circle);
+            g2.drawImage(scaled, 0, 0, null);
+            g2.dispose();
+            return out;
+        }
+
+        private static final Metrics.Op RESIZE = Metrics.op("image.resize");
+
+        /** Resizes to exactly tw x th: repeated bilinear halving while the image is at least twice the target, then one final bilinear pass. */
+        static BufferedImage resize(BufferedImage src, int tw, int th) {
+            long start = Metrics.start();
+            BufferedImage out = resizeUntimed(src, tw, th);
+            RESIZE.record(start);
+            return out;
+        }
+
+        private static BufferedImage resizeUntimed(BufferedImage src, int tw, int th) {
+            int type = src.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+            BufferedImage cur = src;
+            int cw = src.getWidth(), ch = src.getHeight();
+            Scratch scratch = SCRATCH.get();
+            int flip = 0;
+            while (cw / 2 >= tw && ch / 2 >= th) {
+                int nw = cw / 2, nh = ch / 2;
+                BufferedImage buf = scratch.get(flip, nw, nh);
+                draw(buf, cur, cw, ch, nw, nh);
+                cur = buf; cw = nw; ch = nh; flip ^= 1;
+            }
+            BufferedImage out = new BufferedImage(tw, th, type);
+            draw(out, cur, cw, ch, tw, th);
+            return out;
+        }
+
+        private static void draw(BufferedImage dst, BufferedImage src, int sw, int sh, int dw, int dh) {
+            // scratch buffers can be larger than the live region; a sub-image keeps bilinear sampling inside it
+            BufferedImage region = sw == src.getWidth() && sh == src.getHeight() ? src : src.getSubimage(0, 0, sw, sh);
+            Graphics2D g2 = dst.createGraphics();
+            g2.setComposite(AlphaComposite.Src);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2.drawImage(region, 0, 0, dw, dh, null);
+            g2.dispose();
+        }
+
+        /** Per-thread ping-pong buffers for the intermediate halving steps. */
+        private static final class Scratch {
+            private static final long MAX_RETAINED_PIXELS = 4_000_000;
+            private final BufferedImage[] bufs = new BufferedImage[2];
+            BufferedImage get(int i, int w, int h) {
+                BufferedImage b = bufs[i];
+                if (b != null && b.getWidth() >= w && b.getHeight() >= h) return b;
+                b = new BufferedImage(Math.max(w, b == null ? 0 : b.getWidth()), Math.max(h, b == null ? 0 : b.getHeight()), BufferedImage.TYPE_INT_ARGB);
+                // very large intermediates are used once and left to the GC rather than pinned per thread
+                if ((long) b.getWidth() * b.getHeight() <= MAX_RETAINED_PIXELS) bufs[i] = b;
+                return b;
+            }
+        }
+        private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+    }
 
-        JPanel right = new JPanel(new BorderLayout());
-        right.setBorder(new EmptyBorder(8,8,8,8));
-        right.add(new JLabel("Explore Users"), BorderLayout.NORTH);
-        usersList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        JScrollPane usersScroll = new JScrollPane(usersList);
-        right.add(usersScroll, BorderLayout.CENTER);
-        JPanel userAct = new JPanel();
-        JButton followBtn = new JButton("Follow"); userAct.add(followBtn);
-        JButton viewProfile = new JButton("View Profile"); userAct.add(viewProfile);
-        JTextField search = new JTextField(12); userAct.add(search);
-        JButton searchBtn = new JButton("Search"); userAct.add(searchBtn);
-        right.add(userAct, BorderLayout.SOUTH);
+    // --- Scaling benchmark: java SocialMediaAppFull --bench-scale [srcWidth srcHeight target iterations] ---
+    static class ScaleBenchmark {
+        static void run(String[] args) {
+            int sw = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+            int sh = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+            int target = args.length > 3 ? Integer.parseInt(args[3]) : 140;
+            int iters = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+            BufferedImage src = new BufferedImage(sw, sh, BufferedImage.TYPE_INT_RGB);
+            Random rnd = new Random(42);
+            for (int y = 0; y < sh; y++) for (int x = 0; x < sw; x++) src.setRGB(x, y, (x * 255 / sw) << 16 | (y * 255 / sh) << 8 | rnd.nextInt(256));
 
-        followBtn.addActionListener(e -> doFollowSelected());
-        viewProfile.addActionListener(e -> doViewProfile());
-        searchBtn.addActionListener(e -> doSearch(search.getText()));
+            System.out.printf("source %dx%d -> %dpx box, %d iterations%n", sw, sh, target, iters);
+            report("getScaledInstance(SCALE_SMOOTH)", iters, () -> {
+                // force the lazy ToolkitImage to render, which is what painting it would do
+                Image lazy = src.getScaledInstance(target, target, Image.SCALE_SMOOTH);
+                lazy = new ImageIcon(lazy).getImage();
+                BufferedImage out = new BufferedImage(target, target, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g2 = out.createGraphics(); g2.drawImage(lazy, 0, 0, null); g2.dispose();
+                return out;
+            });
+            report("ImageUtils.scale (progressive bilinear)", iters, () -> ImageUtils.scale(src, target, target));
+        }
 
-        center.setLeftComponent(timelinePanel);
-        center.setRightComponent(right);
-        outer.add(center, BorderLayout.CENTER);
-        return outer;
+        private static void report(String name, int iters, java.util.function.Supplier<BufferedImage> op) {
+            for (int i = 0; i < Math.max(3, iters / 5); i++) op.get(); // warm-up
+            long[] ns = new long[iters];
+            for (int i = 0; i < iters; i++) {
+                long t0 = System.nanoTime();
+                op.get();
+                ns[i] = System.nanoTime() - t0;
+            }
+            Arrays.sort(ns);
+            System.out.printf("%-42s mean %8.2f ms  p50 %8.2f ms  p99 %8.2f ms%n", name,
+                    Arrays.stream(ns).average().orElse(0) / 1e6, ns[iters / 2] / 1e6, ns[Math.min(iters - 1, (int) (iters * 0.99))] / 1e6);
+        }
     }
 
-    private JPanel adminPanel() {
-        JPanel p = new JPanel(new BorderLayout());
-        JPanel top = new JPanel();
-        top.add(new JLabel("Admin Panel"));
-        JButton back = new JButton("Back"); top.add(back);
-        JButton export = new JButton("Export Users CSV"); top.add(export);
-        p.add(top, BorderLayout.NORTH);
+    // --- Headless service mode: java SocialMediaAppFull --server [port]; DataStore operations over local HTTP ---
+    static class SocialServer {
+        private final DataStore store;
+        private final HttpServer http;
+        private final ExecutorService executor;
 
-        JTable table = new JTable();
-        p.add(new JScrollPane(table), BorderLayout.CENTER);
+        /** Binds to the loopback interface only: parameters are trusted, there are no sessions. port 0 picks a free port. */
+        SocialServer(DataStore store, int port) throws IOException {
+            this.store = store;
+            this.http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), Integer.getInteger("social.server.backlog", 1024));
+            this.executor = requestExecutor();
+            http.setExecutor(executor);
+            http.createContext("/", this::handle);
+        }
 
-        back.addActionListener(e -> cards.show(root, "home"));
-        export.addActionListener(e -> exportUsersCsv());
+        void start() { http.start(); }
+        int port() { return http.getAddress().getPort(); }
 
-        DefaultTableModel model = new DefaultTableModel(new Object[] {"ID","Username"}, 0);
-        List<String> names = store.allUsernames();
-        int id = 1;
-        for (String name : names) model.addRow(new Object[] { id++, name });
-        table.setModel(model);
-        return p;
-    }
+        void stop() {
+            http.stop(1);
+            executor.shutdown();
+        }
 
-    // actions
-    private void doLogin() {
-        String u = loginUser.getText().trim();
-        String p = new String(loginPass.getPassword());
-        if (u.isEmpty() || p.isEmpty()) { JOptionPane.showMessageDialog(this, "Enter credentials"); return; }
-        if (store.validateLogin(u,p)) {
-            currentUserId = store.getUserId(u);
-            currentUsername = u;
-            welcomeLabel.setText("Welcome @" + currentUsername + " (ID:" + currentUserId + ")");
-            refreshHome();
-            cards.show(root, "home");
-        } else JOptionPane.showMessageDialog(this, "Login failed");
-    }
+        /** One virtual thread per request where the JDK has them (21+); otherwise a bounded pool of platform threads. */
+        static ExecutorService requestExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                int threads = Integer.getInteger("social.server.threads", 200);
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(Integer.getInteger("social.server.queue", 10_000)), r -> {
+                            Thread t = new Thread(r, "http-worker");
+                            t.setDaemon(true);
+                            return t;
+                        }, new ThreadPoolExecutor.CallerRunsPolicy()); // a full queue slows the accept loop down instead of dropping
+                pool.allowCoreThreadTimeOut(true);
+                return pool;
+            }
+        }
 
-    private void doRegister() {
-        String u = regUser.getText().trim();
-        String p = new String(regPass.getPassword());
-        if (u.isEmpty() || p.isEmpty()) { JOptionPane.showMessageDialog(this, "Enter credentials"); return; }
-        int id = store.createUser(u,p);
-        if (id != -1) JOptionPane.showMessageDialog(this, "Account created! Please login."); else JOptionPane.showMessageDialog(this, "Registration failed (maybe username taken)");
-    }
+        private void handle(HttpExchange ex) throws IOException {
+            int status = 200;
+            String body;
+            try {
+                Map<String, String> p = params(ex);
+                body = route(ex.getRequestMethod(), ex.getRequestURI().getPath(), p);
+                if (body == null) { status = 404; body = error("no such endpoint"); }
+            } catch (BadRequest e) {
+                status = 400; body = error(e.getMessage());
+            } catch (RejectedExecutionException e) {
+                status = 503; body = error("busy, try again");
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                status = 500; body = error(String.valueOf(e));
+            }
+            byte[] out = body.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(status, out.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(out); }
+        }
 
-    private void doLikeSelected() {
-        PostItem sel = timelineList.getSelectedValue(); if (sel==null) return;
-        // animation: pulse background of selected cell (simple repaint)
-        int idx = timelineList.getSelectedIndex();
-        if (idx >= 0) {
-            final int[] step = {0};
-            Timer t = new Timer(30, ev -> {
-                step[0]++;
-                timelineList.repaint();
-                if (step[0] > 10) ((Timer)ev.getSource()).stop();
-            });
-            t.start();
+        /** Returns the JSON response, or null for an unknown endpoint. Reads are GET, everything else is POST. */
+        private String route(String method, String path, Map<String, String> p) {
+            boolean get = method.equals("GET");
+            if (!get && !method.equals("POST")) return null;
+            switch (path) {
+                case "/users":
+                    if (!get) return "{\"id\":" + store.createUser(param(p, "username"), param(p, "password")) + "}";
+                    String q = p.getOrDefault("q", "");
+                    return strings(q.isEmpty() ? store.allUsernames() : store.searchUsers(q, intParam(p, "offset", 0), intParam(p, "limit", 50)));
+                case "/login": {
+                    if (get) return null;
+                    String username = param(p, "username");
+                    boolean ok = store.validateLogin(username, param(p, "password"));
+                    return "{\"ok\":" + ok + ",\"id\":" + (ok ? store.getUserId(username) : -1) + "}";
+                }
+                case "/followers": {
+                    int id = intParam(p, "userId");
+                    return "{\"count\":" + store.followerCount(id) + ",\"followers\":" + strings(store.followers(id)) + "}";
+                }
+                case "/timeline":
+                    return posts(store.fetchTimelinePage(intParam(p, "userId"), intParam(p, "before", 0), intParam(p, "limit", 50)));
+                case "/posts":
+                    if (get) return posts(store.fetchAllPosts());
+                    return ok(store.addPost(intParam(p, "userId"), param(p, "content"), p.getOrDefault("image", "")));
+                case "/search":
+                    return posts(store.searchPosts(param(p, "q"), intParam(p, "offset", 0), intParam(p, "limit", 50)));
+            }
+            if (get) return null;
+            switch (path) {
+                case "/follow": store.follow(intParam(p, "followerId"), intParam(p, "followeeId")); return ok(true);
+                case "/unfollow": store.unfollow(intParam(p, "followerId"), intParam(p, "followeeId")); return ok(true);
+                case "/like": store.like(intParam(p, "postId"), intParam(p, "userId")); return ok(true);
+                case "/unlike": store.unlike(intParam(p, "postId"), intParam(p, "userId")); return ok(true);
+                case "/comment": store.comment(intParam(p, "postId"), intParam(p, "userId"), param(p, "text")); return ok(true);
+                default: return null;
+            }
         }
-        store.like(sel.postId, currentUserId);
-        refreshHome();
-    }
 
-    private void doCommentSelected() {
-        PostItem sel = timelineList.getSelectedValue();
-        if (sel==null) return;
-        String text = JOptionPane.showInputDialog(this, "Enter comment:");
-        if (text!=null && !text.trim().isEmpty()) { store.comment(sel.postId, currentUserId, text.trim()); refreshHome(); }
-    }
+        /** A missing or malformed parameter: a 400, unlike exceptions from the store, which are server faults and answer 500. */
+        private static final class BadRequest extends IllegalArgumentException {
+            private static final long serialVersionUID = 1L;
+            BadRequest(String message) { super(message); }
+        }
 
-    private void doFollowSelected() {
-        String sel = usersList.getSelectedValue();
-        if (sel==null) return;
-        int id = store.getUserId(sel);
-        if (id==-1) return;
-        store.follow(currentUserId, id);
-        JOptionPane.showMessageDialog(this, "Now following @"+sel);
-        refreshHome();
-    }
+        private static String param(Map<String, String> p, String name) {
+            String v = p.get(name);
+            if (v == null) throw new BadRequest("missing parameter: " + name);
+            return v;
+        }
 
-    private void doViewProfile() {
-        String sel = usersList.getSelectedValue(); if (sel==null) return; int id = store.getUserId(sel); if (id==-1) return;
-        JDialog d = new JDialog(this, "Profile - @" + sel, true);
-        d.setSize(800,600); d.setLocationRelativeTo(this);
-        JPanel p = new JPanel(new BorderLayout());
-        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        String avatar = store.getAvatarFilename(id);
-        JLabel avatarLabel = new JLabel();
-        if (avatar!=null && !avatar.isEmpty()) {
+        private static int intParam(Map<String, String> p, String name) {
+            return parseInt(name, param(p, name));
+        }
+
+        private static int intParam(Map<String, String> p, String name, int dflt) {
+            String v = p.get(name);
+            return v == null || v.isEmpty() ? dflt : parseInt(name, v);
+        }
+
+        private static int parseInt(String name, String v) {
             try {
-                BufferedImage img = ImageIO.read(new File("avatars", avatar));
-                Image circle = ImageUtils.createCircle(img, 80);
-                avatarLabel.setIcon(new ImageIcon(circle));
-            } catch (IOException ignored) { avatarLabel.setText("[No Avatar]"); }
-        } else avatarLabel.setText("[No Avatar]");
-        avatarLabel.setBorder(new EmptyBorder(6,6,6,6));
-        top.add(avatarLabel);
-        JLabel nameL = new JLabel("@"+sel + " (ID:"+id+")"); nameL.setFont(new Font("SansSerif", Font.BOLD, 18)); top.add(nameL);
-        JButton follow = new JButton("Follow"); top.add(follow);
-        follow.addActionListener(e -> { store.follow(currentUserId, id); JOptionPane.showMessageDialog(this, "Followed @"+sel); });
-        p.add(top, BorderLayout.NORTH);
+                return Integer.parseInt(v);
+            } catch (NumberFormatException e) {
+                throw new BadRequest("malformed parameter: " + name);
+            }
+        }
 
-        List<PostItem> posts = store.fetchAllPosts();
-        JPanel grid = new JPanel(new GridLayout(0,3,8,8));
-        for (PostItem pi : posts) if (pi.userId==id) {
-            JPanel card = new JPanel(new BorderLayout());
-            card.setBorder(new EmptyBorder(4,4,4,4));
-            if (pi.imageFilename!=null && !pi.imageFilename.isEmpty()) {
-                try {
-                    BufferedImage img = ImageIO.read(new File("posts_images", pi.imageFilename));
-                    ImageIcon ic = new ImageIcon(ImageUtils.scale(img, 220, 220));
-                    JLabel pic = new JLabel(ic); pic.setHorizontalAlignment(SwingConstants.CENTER);
-                    pic.addMouseListener(new MouseAdapter() {
-                        public void mouseClicked(MouseEvent e) { showImageModal(img, pi); }
-                        public void mouseEntered(MouseEvent e) { showHover(img, e); }
-                        public void mouseExited(MouseEvent e) { hideHover(); }
-                    });
-                    card.add(pic, BorderLayout.CENTER);
-                } catch (IOException ignored) { card.add(new JLabel(pi.content), BorderLayout.CENTER); }
-            } else {
-                JTextArea ta = new JTextArea(pi.content); ta.setLineWrap(true); ta.setWrapStyleWord(true); ta.setEditable(false); card.add(new JScrollPane(ta), BorderLayout.CENTER);
+        /** Query string plus, for POST, an application/x-www-form-urlencoded body. */
+        private static Map<String, String> params(HttpExchange ex) throws IOException {
+            Map<String, String> out = new HashMap<>();
+            parseForm(ex.getRequestURI().getRawQuery(), out);
+            if (ex.getRequestMethod().equals("POST")) {
+                try (InputStream in = ex.getRequestBody()) {
+                    parseForm(new String(in.readAllBytes(), StandardCharsets.UTF_8), out);
+                }
             }
-            card.add(new JLabel("Likes: "+pi.likes+"  Comments: "+pi.comments), BorderLayout.SOUTH);
-            grid.add(card);
+            return out;
         }
-        JScrollPane scroll = new JScrollPane(grid);
-        p.add(scroll, BorderLayout.CENTER);
-        d.add(p);
-        d.setVisible(true);
-    }
 
-    private void showImageModal(BufferedImage img, PostItem pi) {
-        JDialog dlg = new JDialog(this, "Post by @"+pi.username, true);
-        dlg.setSize(600,600); dlg.setLocationRelativeTo(this);
-        JLabel lab = new JLabel(new ImageIcon(ImageUtils.scale(img, 560, 560)));
-        JTextArea caption = new JTextArea(pi.content); caption.setEditable(false); caption.setLineWrap(true);
-        dlg.add(new JScrollPane(lab), BorderLayout.CENTER);
-        dlg.add(new JScrollPane(caption), BorderLayout.SOUTH);
-        dlg.setVisible(true);
+        private static void parseForm(String s, Map<String, String> into) {
+            if (s == null || s.isEmpty()) return;
+            for (String pair : s.split("&")) {
+                int eq = pair.indexOf('=');
+                String k = eq < 0 ? pair : pair.substring(0, eq), v = eq < 0 ? "" : pair.substring(eq + 1);
+                into.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+            }
+        }
+
+        private static String ok(boolean ok) { return "{\"ok\":" + ok + "}"; }
+        private static String error(String msg) { return "{\"error\":" + quote(msg) + "}"; }
+
+        private static String strings(List<String> list) {
+            StringBuilder sb = new StringBuilder("[");
+            for (String s : list) sb.append(sb.length() > 1 ? "," : "").append(quote(s));
+            return sb.append(']').toString();
+        }
+
+        private static String posts(List<PostItem> list) {
+            StringBuilder sb = new StringBuilder("[");
+            for (PostItem pi : list) {
+                if (sb.length() > 1) sb.append(',');
+                sb.append("{\"id\":").append(pi.postId).append(",\"userId\":").append(pi.userId)
+                  .append(",\"username\":").append(quote(pi.username)).append(",\"content\":").append(quote(pi.content))
+                  .append(",\"createdAt\":").append(quote(pi.createdAt)).append(",\"likes\":").append(pi.likes)
+                  .append(",\"comments\":").append(pi.comments).append(",\"image\":").append(quote(pi.imageFilename)).append('}');
+            }
+            return sb.append(']').toString();
+        }
+
+        static String quote(String s) {
+            if (s == null) return "null";
+            StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') sb.append('\\').append(c);
+                else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                else sb.append(c);
+            }
+            return sb.append('"').toString();
+        }
     }
 
-    private void showHover(BufferedImage img, MouseEvent e) {
-        try {
-            hoverLabel.setIcon(new ImageIcon(ImageUtils.scale(img, 320, 320)));
-            Point p = e.getLocationOnScreen();
-            hoverWindow.setSize(340,340);
-            hoverWindow.setLocation(p.x+15, p.y+15);
-            hoverWindow.setVisible(true);
-        } catch (Exception ex) { /* ignore */ }
+    // --- Service load test: java SocialMediaAppFull --load-test [port clients seconds userId] against a running --server ---
+    static class ServerLoadTest {
+        static void run(String[] args) throws InterruptedException {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            int clients = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+            int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            int userId = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+            java.net.http.HttpClient client = java.net.http.HttpClient.newBuilder().version(java.net.http.HttpClient.Version.HTTP_1_1).executor(SocialServer.requestExecutor()).build();
+            java.net.http.HttpRequest req = java.net.http.HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/timeline?limit=20&userId=" + userId)).build();
+            System.out.printf("GET /timeline from %d concurrent clients for %d s%n", clients, seconds);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            List<long[]> perClient = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger errors = new AtomicInteger();
+            Thread[] ts = new Thread[clients];
+            for (int c = 0; c < clients; c++) {
+                ts[c] = new Thread(() -> {
+                    long[] ns = new long[256];
+                    int n = 0;
+                    while (System.nanoTime() < deadline) {
+                        long t0 = System.nanoTime();
+                        try {
+                            if (client.send(req, java.net.http.HttpResponse.BodyHandlers.discarding()).statusCode() != 200) errors.incrementAndGet();
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                            continue;
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (n == ns.length) ns = Arrays.copyOf(ns, n * 2);
+                        ns[n++] = System.nanoTime() - t0;
+                    }
+                    perClient.add(Arrays.copyOf(ns, n));
+                });
+                ts[c].start();
+            }
+            for (Thread t : ts) t.join();
+            long[] all = perClient.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            if (all.length == 0) { System.out.println("no successful requests, " + errors.get() + " errors"); return; }
+            System.out.printf("%.1f req/s  p50 %.2f ms  p99 %.2f ms  %d errors%n", all.length / (double) seconds,
+                    all[all.length / 2] / 1e6, all[Math.min(all.length - 1, (int) (all.length * 0.99))] / 1e6, errors.get());
+        }
     }
-    private void hideHover() { hoverWindow.setVisible(false); }
 
-    private void doSearch(String term) { usersModel.clear(); if (term==null||term.trim().isEmpty()) { store.allUsernames().forEach(usersModel::addElement); return; } for (String u : store.allUsernames()) if (u.toLowerCase().contains(term.toLowerCase())) usersModel.addElement(u); }
+    // --- Login benchmark: java SocialMediaAppFull --bench-login [iterations clients seconds hasherThreads] ---
+    static class LoginBenchmark {
+        static void run(String[] args) throws InterruptedException {
+            int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 120_000;
+            int clients = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+            int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            int threads = args.length > 4 ? Integer.parseInt(args[4]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            System.out.printf("PBKDF2 %d iterations, %d clients, %d hasher threads, %d s per run%n", iterations, clients, threads, seconds);
+            measure("cold (no verification cache)", new PasswordHasher(iterations, threads, clients, 0), clients, seconds);
+            measure("warm (verification cache)", new PasswordHasher(iterations, threads, clients, 10_000), clients, seconds);
+        }
 
-    private void refreshHome() {
-        welcomeLabel.setText("Welcome @" + currentUsername + " (ID:" + currentUserId + ")");
-        usersModel.clear(); store.allUsernames().forEach(usersModel::addElement);
-        timelineModel.clear(); store.fetchTimelineForUser(currentUserId).forEach(timelineModel::addElement);
+        private static void measure(String name, PasswordHasher hasher, int clients, int seconds) throws InterruptedException {
+            String[] stored = new String[64];
+            for (int i = 0; i < stored.length; i++) stored[i] = hasher.hash("password" + i);
+            for (int i = 0; i < stored.length; i++) hasher.verify("password" + i, stored[i]); // warm-up; fills the cache if there is one
+            List<long[]> perClient = Collections.synchronizedList(new ArrayList<>());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            Thread[] ts = new Thread[clients];
+            for (int c = 0; c < clients; c++) {
+                int seed = c;
+                ts[c] = new Thread(() -> {
+                    long[] ns = new long[1024];
+                    int n = 0;
+                    for (int i = seed; System.nanoTime() < deadline; i++) {
+                        int u = i % stored.length;
+                        long t0 = System.nanoTime();
+                        if (!hasher.verify("password" + u, stored[u])) throw new IllegalStateException("verification failed");
+                        if (n == ns.length) ns = Arrays.copyOf(ns, n * 2);
+                        ns[n++] = System.nanoTime() - t0;
+                    }
+                    perClient.add(Arrays.copyOf(ns, n));
+                });
+                ts[c].start();
+            }
+            for (Thread t : ts) t.join();
+            long[] all = perClient.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            if (all.length == 0) { System.out.printf("%-32s no logins completed%n", name); return; }
+            System.out.printf("%-32s %9.1f logins/s  p50 %8.2f ms  p99 %8.2f ms%n", name, all.length / (double) seconds,
+                    all[all.length / 2] / 1e6, all[Math.min(all.length - 1, (int) (all.length * 0.99))] / 1e6);
+        }
     }
 
-    private void toggleTheme() { dark = !dark; Color bg = dark? new Color(28,28,30): new Color(250,250,250); Color fg = dark? Color.WHITE: Color.DARK_GRAY; getContentPane().setBackground(bg); SwingUtilities.invokeLater(() -> updateComponentTreeUI(this, bg, fg)); }
-    private void updateComponentTreeUI(Component comp, Color bg, Color fg) { comp.setBackground(bg); comp.setForeground(fg); if (comp instanceof Container) for (Component c : ((Container) comp).getComponents()) updateComponentTreeUI(c, bg, fg); repaint(); }
+    // --- CSVStore stress test: java SocialMediaAppFull --stress-csv [threads opsPerThread]; exits 1 on lost or torn data ---
+    static class CsvStoreStress {
+        static void run(String[] args) throws Exception {
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+            int ops = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+            // at the default PBKDF2 cost this would mostly measure password hashing
+            if (System.getProperty("social.auth.iterations") == null) System.setProperty("social.auth.iterations", "1000");
+            File dir = Files.createTempDirectory("csvstore-stress").toFile();
+            List<String> errors = Collections.synchronizedList(new ArrayList<>());
+            CSVStore store = new CSVStore(dir);
+            if (!store.init()) throw new IllegalStateException("init failed in " + dir);
 
-    private void exportUsersCsv() {
-        try (FileWriter fw = new FileWriter("users_export.csv")) {
-            fw.append("id,username,avatar\n");
-            try (BufferedReader br = new BufferedReader(new FileReader("users.csv"))) {
-                String line; while ((line = br.readLine()) != null) {
-                    String[] a = CSVStore.splitCsv(line);
-                    if (a.length >= 4) fw.append(a[0] + "," + a[1] + "," + a[3] + "\n");
+            int seedPosts = 64;
+            int[] users = new int[threads];
+            parallel(threads, errors, t -> users[t] = store.createUser("stress" + t, "pw" + t));
+            for (int i = 0; i < seedPosts; i++) store.addPost(users[0], "seed " + i, null); // posts 1..seedPosts
+            // what each thread did, replayed against the store afterwards
+            boolean[][] liked = new boolean[threads][seedPosts + 1], following = new boolean[threads][threads];
+            int[][] comments = new int[threads][seedPosts + 1];
+            int[] posted = new int[threads];
+            String[] avatars = new String[threads];
+
+            // a reader checks that scans never return half-written rows while the writers run
+            AtomicBoolean done = new AtomicBoolean();
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    List<PostItem> seen = new ArrayList<>(store.fetchTimelinePage(users[0], 0, 50));
+                    seen.addAll(store.fetchAllPosts());
+                    for (PostItem pi : seen)
+                        if (!(pi.content.startsWith("seed ") || pi.content.startsWith("t")) || pi.createdAt.length() != 19) errors.add("torn read: post " + pi.postId);
+                    String av = store.getAvatarFilename(users[threads - 1]);
+                    if (av != null && !av.startsWith("a")) errors.add("torn read: avatar " + av);
                 }
-            } catch (IOException ignored) {}
-            JOptionPane.showMessageDialog(this, "Exported to users_export.csv");
-        } catch (IOException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Export failed: " + e.getMessage());
-        }
-    }
+            }, "stress-reader");
+            reader.start();
+            long t0 = System.nanoTime();
+            parallel(threads, errors, t -> {
+                Random rnd = new Random(t);
+                int me = users[t];
+                for (int i = 0; i < ops; i++) {
+                    int p = 1 + rnd.nextInt(seedPosts), r = rnd.nextInt(100);
+                    if (r < 40) {
+                        if (liked[t][p]) store.unlike(p, me); else store.like(p, me);
+                        liked[t][p] = !liked[t][p];
+                    } else if (r < 60) {
+                        store.comment(p, me, "c" + t);
+                        comments[t][p]++;
+                    } else if (r < 80) {
+                        if (store.addPost(me, "t" + t + " " + posted[t], null)) posted[t]++;
+                    } else if (r < 99) {
+                        int o = rnd.nextInt(threads);
+                        if (o == t) continue;
+                        if (following[t][o]) store.unfollow(me, users[o]); else store.follow(me, users[o]);
+                        following[t][o] = !following[t][o];
+                    } else {
+                        avatars[t] = "a" + t + "_" + i + ".png";
+                        store.setAvatar(me, avatars[t]);
+                    }
+                }
+            });
+            double secs = (System.nanoTime() - t0) / 1e9;
+            done.set(true);
+            reader.join();
+            System.out.printf("%d threads x %d ops in %.2f s (%.0f ops/s)%n", threads, ops, secs, threads * ops / secs);
 
-    // Avatar chooser for current user
-    private void chooseAvatar() {
-        if (currentUserId==-1) { JOptionPane.showMessageDialog(this, "Login first"); return; }
-        JFileChooser fc = new JFileChooser();
-        fc.setFileFilter(new FileNameExtensionFilter("Images", ImageIO.getReaderFileSuffixes()));
-        int r = fc.showOpenDialog(this);
-        if (r == JFileChooser.APPROVE_OPTION) {
-            File chosen = fc.getSelectedFile();
-            try {
-                String destName = System.currentTimeMillis() + "_" + chosen.getName();
-                File dest = new File("avatars", destName);
-                Files.copy(chosen.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                store.setAvatar(currentUserId, destName);
-                JOptionPane.showMessageDialog(this, "Avatar set!");
-                refreshHome();
-            } catch (IOException ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(this, "Avatar set failed: "+ex.getMessage()); }
+            Expected want = new Expected(users, seedPosts, liked, following, comments, posted, avatars);
+            want.check("live", store, errors);
+            store.close();
+            CSVStore reopened = new CSVStore(dir);
+            if (!reopened.init()) throw new IllegalStateException("reopen failed");
+            want.check("reopened", reopened, errors);
+            reopened.close();
+            // without the counter snapshot the like sets and comment counts are rebuilt from the logs alone
+            new File(dir, "counters.dat").delete();
+            CSVStore rebuilt = new CSVStore(dir);
+            if (!rebuilt.init()) throw new IllegalStateException("rebuild failed");
+            want.check("rebuilt from logs", rebuilt, errors);
+            rebuilt.close();
+            checkRows(new File(dir, "users.csv"), 4, 4, errors);
+            checkRows(new File(dir, "posts.csv"), 5, 5, errors);
+            checkRows(new File(dir, "likes.csv"), 2, 3, errors);
+            checkRows(new File(dir, "follows.csv"), 2, 3, errors);
+            checkRows(new File(dir, "comments.csv"), 4, 4, errors);
+
+            if (errors.isEmpty()) {
+                System.out.println("OK: no lost updates or torn rows (" + dir + ")");
+                return;
+            }
+            errors.stream().limit(20).forEach(System.out::println);
+            System.out.println(errors.size() + " problems; data left in " + dir);
+            System.exit(1);
         }
-    }
 
-    // PostItem & renderer
-    static class PostItem {
-        int postId, userId; String username, content, createdAt; int likes, comments; String imageFilename;
-        PostItem(int postId, int userId, String username, String content, String createdAt, int likes, int comments, String imageFilename) { this.postId = postId; this.userId = userId; this.username = username; this.content = content; this.createdAt = createdAt; this.likes = likes; this.comments = comments; this.imageFilename = imageFilename; }
-        public String toString() { return "@"+username+": "+(content.length()>60?content.substring(0,60)+"...":content); }
-    }
+        interface Task { void run(int thread) throws Exception; }
 
-    static class PostRenderer extends JPanel implements ListCellRenderer<PostItem> {
-        private JLabel top = new JLabel();
-        private JTextArea body = new JTextArea();
-        private JLabel meta = new JLabel();
-        private JLabel pic = new JLabel();
-        public PostRenderer() {
-            setLayout(new BorderLayout());
-            top.setFont(new Font("SansSerif", Font.BOLD, 13));
-            body.setLineWrap(true); body.setWrapStyleWord(true); body.setEditable(false);
-            meta.setFont(new Font("SansSerif", Font.PLAIN, 11));
-            add(top, BorderLayout.NORTH); add(body, BorderLayout.CENTER); add(meta, BorderLayout.SOUTH);
-            setBorder(new EmptyBorder(8,8,8,8));
+        private static void parallel(int threads, List<String> errors, Task task) throws InterruptedException {
+            Thread[] ts = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                int t = i;
+                ts[i] = new Thread(() -> {
+                    try { task.run(t); } catch (Exception e) { errors.add("thread " + t + ": " + e); }
+                }, "stress-" + i);
+                ts[i].start();
+            }
+            for (Thread t : ts) t.join();
         }
-        public Component getListCellRendererComponent(JList<? extends PostItem> list, PostItem value, int index, boolean isSelected, boolean cellHasFocus) {
-            top.setText("@" + value.username + " (ID:" + value.userId + ")");
-            body.setText(value.content);
-            meta.setText("At: " + value.createdAt + " | Likes: " + value.likes + " | Comments: " + value.comments);
-            if (value.imageFilename != null && !value.imageFilename.isEmpty()) {
-                try {
-                    BufferedImage img = ImageIO.read(new File("posts_images", value.imageFilename));
-                    ImageIcon ic = new ImageIcon(ImageUtils.scale(img, 140, 140));
-                    pic.setIcon(ic);
-                    if (pic.getParent() == null) add(pic, BorderLayout.EAST);
-                } catch (IOException ignored) {
-                    pic.setIcon(null);
+
+        /** Every line must be a whole row: a field count in range and a numeric id. */
+        private static void checkRows(File f, int minFields, int maxFields, List<String> errors) throws IOException {
+            try (CsvTokenizer t = new CsvTokenizer(new FileReader(f))) {
+                for (int line = 1; t.next(); line++) {
+                    boolean ok = t.fields() >= minFields && t.fields() <= maxFields;
+                    try { t.longField(0); } catch (NumberFormatException e) { ok = false; }
+                    if (!ok) errors.add(f.getName() + " line " + line + " is torn");
                 }
-            } else {
-                pic.setIcon(null);
-                if (pic.getParent() != null) remove(pic);
             }
-            setBackground(isSelected ? new Color(230,230,250) : Color.WHITE);
-            return this;
         }
-    }
 
-    // --- Image utilities: circular avatars, scaling ---
-    static class ImageUtils {
-        static Image scale(BufferedImage img, int w, int h) {
-            return img.getScaledInstance(w, h, Image.SCALE_SMOOTH);
-        }
-        static Image createCircle(BufferedImage src, int size) {
-            BufferedImage out = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2 = out.createGraphics();
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            Shape circle = new Ellipse2D.Float(0,0,size,size);
-            g2.setClip(circle);
-            g2.drawImage(src.getScaledInstance(size, size, Image.SCALE_SMOOTH), 0,0,null);
-            g2.dispose();
-            return out;
+        private static final class Expected {
+            final int[] users, posted;
+            final int seedPosts;
+            final boolean[][] liked, following;
+            final int[][] comments;
+            final String[] avatars;
+
+            Expected(int[] users, int seedPosts, boolean[][] liked, boolean[][] following, int[][] comments, int[] posted, String[] avatars) {
+                this.users = users; this.seedPosts = seedPosts; this.liked = liked; this.following = following;
+                this.comments = comments; this.posted = posted; this.avatars = avatars;
+            }
+
+            void check(String label, CSVStore s, List<String> errors) {
+                int threads = users.length;
+                IntSet ids = new IntSet();
+                for (int t = 0; t < threads; t++) {
+                    if (s.getUserId("stress" + t) != users[t]) errors.add(label + ": user " + t + " has id " + s.getUserId("stress" + t));
+                    if (!ids.add(users[t])) errors.add(label + ": user id " + users[t] + " handed out twice");
+                    if (!Objects.equals(s.getAvatarFilename(users[t]), avatars[t])) errors.add(label + ": avatar of user " + t + " lost");
+                    int followers = 0;
+                    for (int o = 0; o < threads; o++) {
+                        if (s.isFollowing(users[t], users[o]) != following[t][o]) errors.add(label + ": follow " + t + "->" + o + " lost");
+                        if (following[o][t]) followers++;
+                    }
+                    if (s.followerCount(users[t]) != followers) errors.add(label + ": user " + t + " has " + s.followerCount(users[t]) + " followers, expected " + followers);
+                }
+                Map<Integer, PostItem> byId = new HashMap<>();
+                Set<String> contents = new HashSet<>();
+                for (PostItem pi : s.fetchAllPosts()) {
+                    if (byId.put(pi.postId, pi) != null) errors.add(label + ": post id " + pi.postId + " handed out twice");
+                    if (!contents.add(pi.content)) errors.add(label + ": post \"" + pi.content + "\" stored twice");
+                }
+                int total = seedPosts + Arrays.stream(posted).sum();
+                if (byId.size() != total) errors.add(label + ": " + byId.size() + " posts, expected " + total);
+                for (int id = 1; id <= total; id++) if (!byId.containsKey(id)) errors.add(label + ": post id " + id + " missing");
+                for (int t = 0; t < threads; t++)
+                    for (int k = 0; k < posted[t]; k++) if (!contents.contains("t" + t + " " + k)) errors.add(label + ": post \"t" + t + " " + k + "\" lost");
+                for (int p = 1; p <= seedPosts; p++) {
+                    int likes = 0, commented = 0;
+                    for (int t = 0; t < threads; t++) {
+                        if (liked[t][p]) likes++;
+                        commented += comments[t][p];
+                        if (s.hasLiked(p, users[t]) != liked[t][p]) errors.add(label + ": like " + t + "->" + p + " lost");
+                    }
+                    PostItem pi = byId.get(p);
+                    if (pi == null) continue;
+                    if (pi.likes != likes) errors.add(label + ": post " + p + " has " + pi.likes + " likes, expected " + likes);
+                    if (pi.comments != commented) errors.add(label + ": post " + p + " has " + pi.comments + " comments, expected " + commented);
+                }
+            }
         }
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench-scale")) { ScaleBenchmark.run(args); return; }
+        if (args.length > 0 && args[0].equals("--bench-csv")) {
+            try { CsvBenchmark.run(args); } catch (IOException e) { e.printStackTrace(); }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench-login")) {
+            try { LoginBenchmark.run(args); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--compact")) {
+            // one compaction pass over follows.csv, likes.csv and comments.csv in the working directory, whatever their size
+            CSVStore store = new CSVStore();
+            if (!store.init()) { System.err.println("Storage init failed"); System.exit(1); }
+            store.compactLogs(true);
+            LogCompactor c = store.compactor();
+            System.out.printf("%d compactions, %d bytes reclaimed, %d ms%n", c.compactions(), c.bytesReclaimed(), c.totalMillis());
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--export")) {
+            // --export [dir] [csv|jsonl]: the admin export without the UI
+            DataStore store = createStore();
+            if (!store.init()) { System.err.println("Storage init failed"); System.exit(1); }
+            File out = new File(args.length > 1 ? args[1] : "export");
+            DataExporter.Format format = args.length > 2 ? DataExporter.Format.valueOf(args[2].toUpperCase(Locale.ROOT)) : DataExporter.Format.CSV;
+            long start = System.nanoTime();
+            try {
+                long rows = new DataExporter(new File("."), store).export(out, format, (done, total) -> { });
+                System.out.printf("%d rows to %s in %d ms%n", rows, out.getAbsolutePath(), (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+        if (args.length > 0 && args[0].equals("--stress-csv")) {
+            try { CsvStoreStress.run(args); } catch (Exception e) { e.printStackTrace(); System.exit(1); }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            // headless: no Swing, the store is shared by every client
+            DataStore store = createStore();
+            if (!store.init()) { System.err.println("Storage init failed"); System.exit(1); }
+            try {
+                SocialServer server = new SocialServer(store, args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+                server.start();
+                System.out.println("Serving on http://127.0.0.1:" + server.port() + "/");
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--load-test")) {
+            try { ServerLoadTest.run(args); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--migrate-posts")) {
+            // java SocialMediaAppFull --migrate-posts [posts.csv] [posts_col]
+            File csv = new File(args.length > 1 ? args[1] : "posts.csv"), dir = new File(args.length > 2 ? args[2] : "posts_col");
+            try {
+                System.out.println("Migrated " + MappedPostStore.migrate(csv, dir) + " posts into " + dir);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
         SwingUtilities.invokeLater(SocialMediaAppFull::new);
     }
 }
\ No newline at end of file